@@ -0,0 +1,173 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            ActiveRenderer.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * paints the board of a game on its own thread, instead of asking Swing to
+ * repaint it. the thread draws the last frame published by the game into the
+ * back buffer of a BufferStrategy and flips it to the screen, then waits
+ * until it is time for the next frame. nothing is painted on the event
+ * dispatch thread, so painting is not held up by other events, and a frame
+ * published by a key press is shown within one frame interval.
+ *
+ * page flipping is used if the screen supports it. with a render rate of 0
+ * the thread does not wait between frames, and relies on the flip waiting
+ * for the vertical sync instead.
+ *
+ * @author Administrator
+ *
+ */
+public class ActiveRenderer extends Canvas {
+
+	private static final long serialVersionUID = 3318546510957063841L;
+	private final static long STATS_INTERVAL = 10000000000L;		//10 seconds
+	private final TetrisGame game;
+	private final int numBuffers;
+	private final long frameInterval;
+	private final GamePainter painter = new GamePainter();
+	private volatile boolean isRunning;
+	private Thread renderThread;
+	//frame times since the last report, in nanoseconds
+	private long statsStart, numFrames, minFrame, maxFrame, sumFrame, sumSquaredFrame;
+
+	/**
+	 * @param game the game that publishes the frames
+	 * @param numBuffers 2 for double buffering, 3 for triple buffering
+	 * @param renderRate frames per second, or 0 to wait for the vertical sync
+	 */
+	public ActiveRenderer(TetrisGame game, int numBuffers, int renderRate) {
+		this.game = game;
+		this.numBuffers = numBuffers;
+		frameInterval = renderRate > 0 ? 1000000000L / renderRate : 0;
+		setPreferredSize(new Dimension(150, 300));
+		setIgnoreRepaint(true);
+		setFocusable(false);
+	}
+
+	/**
+	 * create the buffers and start the render thread. the canvas must be
+	 * showing in a window.
+	 */
+	public synchronized void start() {
+		if(isRunning)
+			return;
+		try {
+			ImageCapabilities accelerated = new ImageCapabilities(true);
+			createBufferStrategy(numBuffers, new BufferCapabilities(accelerated, accelerated,
+					BufferCapabilities.FlipContents.UNDEFINED));
+		} catch(Exception e) {
+			//no page flipping, blit the back buffer instead
+			createBufferStrategy(numBuffers);
+		}
+		isRunning = true;
+		renderThread = new Thread("ActiveRenderer") {
+			public void run() {
+				renderLoop();
+			}
+		};
+		renderThread.setDaemon(true);
+		renderThread.setPriority(Thread.NORM_PRIORITY + 1);
+		renderThread.start();
+	}
+
+	public synchronized void stop() {
+		isRunning = false;
+		if(renderThread != null && renderThread != Thread.currentThread()) {
+			try {renderThread.join();} catch (InterruptedException e) {}
+		}
+		renderThread = null;
+	}
+
+	private void renderLoop() {
+		BufferStrategy strategy = getBufferStrategy();
+		long nextFrame = System.nanoTime();
+		long lastFrame = nextFrame;
+		statsStart = nextFrame;
+		boolean printsStats = Boolean.getBoolean("tetris.frameStats");
+		boolean hasShown = false;
+		while(isRunning) {
+			GameFrame frame = game.getGameCore().getFrame();
+			do {
+				do {
+					Graphics g = strategy.getDrawGraphics();
+					try {
+						if(frame == null) {
+							g.setColor(Color.darkGray);
+							g.fillRect(0, 0, 150, 300);
+						} else
+							painter.paintBoard(g, frame);
+					} finally {
+						g.dispose();
+					}
+				} while(strategy.contentsRestored());
+				strategy.show();
+				if(strategy.contentsLost())
+					painter.invalidate();
+			} while(strategy.contentsLost());
+			Toolkit.getDefaultToolkit().sync();
+			if(!hasShown) {
+				StartupTrace.mark("first paint");
+				hasShown = true;
+			}
+
+			long now = System.nanoTime();
+			recordFrame(now - lastFrame);
+			lastFrame = now;
+			if(printsStats && now - statsStart >= STATS_INTERVAL) {
+				System.out.println(getFrameStats());
+				resetStats(now);
+			}
+			if(frameInterval > 0) {
+				nextFrame += frameInterval;
+				//too far behind, start again from now instead of rushing frames
+				if(now - nextFrame > frameInterval)
+					nextFrame = now;
+				long wait = nextFrame - now;
+				if(wait > 0)
+					LockSupport.parkNanos(wait);
+			}
+		}
+	}
+
+	private synchronized void recordFrame(long nanos) {
+		if(numFrames == 0 || nanos < minFrame)
+			minFrame = nanos;
+		if(nanos > maxFrame)
+			maxFrame = nanos;
+		sumFrame += nanos;
+		sumSquaredFrame += nanos / 1000 * (nanos / 1000);
+		numFrames++;
+	}
+
+	private synchronized void resetStats(long now) {
+		statsStart = now;
+		numFrames = minFrame = maxFrame = sumFrame = sumSquaredFrame = 0;
+	}
+
+	/**
+	 * @return the number of frames and the min, mean, max and standard
+	 * 			deviation of the frame time since the last report
+	 */
+	public synchronized String getFrameStats() {
+		if(numFrames == 0)
+			return "no frames";
+		double mean = sumFrame / 1e3 / numFrames;
+		double deviation = Math.sqrt(Math.max(0, (double) sumSquaredFrame / numFrames - mean * mean));
+		return String.format("%d frames, frame time min %.2f ms, mean %.2f ms, max %.2f ms, deviation %.2f ms",
+				numFrames, minFrame / 1e6, mean / 1e3, maxFrame / 1e6, deviation / 1e3);
+	}
+}
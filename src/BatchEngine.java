@@ -0,0 +1,362 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            BatchEngine.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * simulates many boards in lockstep, for experiments that need millions of
+ * blocks. every board follows the rules of GameCore.updateGame: each step
+ * is one update, in which the dropping block moves down one row, or is
+ * locked if it cannot (and the game ends if it is all above the visible
+ * area), and the full lines of a lock are cleared in the next update, for
+ * 100, 400, 900 or 2500 points. blocks appear as in TetrisBlock, with a
+ * random type, orientation and column. there is no player, no level, no
+ * garbage and no boom.
+ *
+ * the boards are kept as a structure of arrays: row r of board b is the int
+ * rows[r * capacity + b], where bit j is column j, so the same row of
+ * neighbouring boards is contiguous. a step is done by a kernel. the
+ * ScalarKernel goes through the boards one by one. the VectorKernel (in
+ * vector/VectorKernel.java) tests the collisions, locks the blocks, finds
+ * the full rows and compacts the boards for many boards at once with the
+ * incubating vector API. it is only compiled and loaded with
+ *     --add-modules jdk.incubator.vector
+ * and the scalar kernel is used when it is missing.
+ *
+ * the parts that only happen once per block (a new block, the end of a
+ * game, the score of a clear) are done one board at a time in both kernels.
+ *
+ * usage: BatchEngine [boards] [steps] [threads]
+ * compares the kernels and a pool of threads stepping a TetrisGame per
+ * board, after checking that both kernels give the same boards.
+ *
+ * @author Administrator
+ *
+ */
+public class BatchEngine {
+
+	//status of a board
+	final static int UNUSED = 0;		//a board added to fill the last vector
+	final static int FALLING = 1;
+	final static int CLEARING = 2;		//full lines are cleared in the next step
+	final static int FULL_LINE = TetrisAI.FULL_LINE;
+	private final static int[] LINE_SCORES = {0, 100, 400, 900, 2500};
+	//the rows of each type and orientation at each reference column from -3,
+	//0 if the block would be out of the left or right bound
+	private final static int[][][][] PIECE_ROWS = createPieceRows();
+	private final static int[][] LAST_ROWS = new int[7][4];
+	private final static int[][] FIRST_COLS = new int[7][4];
+	private final static int[][] LAST_COLS = new int[7][4];
+
+	final int numBoards;
+	final int capacity;			//numBoards rounded up to a multiple of 64
+	final int[] rows;
+	final int[] pieceRows;		//row d of the block of board b at d * capacity + b
+	final int[] refRows;
+	final int[] status;
+	private final int[] types;
+	private final int[] orientations;
+	private final int[] randoms;	//xorshift state of each board
+	private final long[] scores;
+	private long pieces;
+	private long games;
+	private long clearedLines;
+	private final Kernel kernel;
+
+	static {
+		for(int t = 0; t < 7; t++) {
+			for(int o = 0; o < 4; o++) {
+				FIRST_COLS[t][o] = 3;
+				for(int b: TetrisBlock.TETRIS_BLOCK_POSITIONS[t][o]) {
+					LAST_ROWS[t][o] = Math.max(LAST_ROWS[t][o], b / 4);
+					FIRST_COLS[t][o] = Math.min(FIRST_COLS[t][o], b % 4);
+					LAST_COLS[t][o] = Math.max(LAST_COLS[t][o], b % 4);
+				}
+			}
+		}
+	}
+
+	/**
+	 * steps all the boards of an engine once
+	 *
+	 * @author Administrator
+	 *
+	 */
+	public interface Kernel {
+		void step(BatchEngine engine);
+	}
+
+	/**
+	 * @param numBoards the number of boards
+	 * @param seed the seed of the blocks of all boards
+	 * @param kernel the kernel that steps the boards
+	 */
+	public BatchEngine(int numBoards, long seed, Kernel kernel) {
+		this.numBoards = numBoards;
+		this.kernel = kernel;
+		capacity = (numBoards + 63) / 64 * 64;
+		rows = new int[20 * capacity];
+		pieceRows = new int[4 * capacity];
+		refRows = new int[capacity];
+		status = new int[capacity];
+		types = new int[capacity];
+		orientations = new int[capacity];
+		randoms = new int[capacity];
+		scores = new long[capacity];
+		for(int b = 0; b < numBoards; b++) {
+			//any state but 0 will do for xorshift
+			randoms[b] = (int) (seed * 0x9E3779B97F4A7C15L + b * 0x632BE59BD9B4E019L) | 1;
+			status[b] = FALLING;
+			spawn(b);
+		}
+	}
+
+	/**
+	 * @return the vector kernel, or null if the vector API or the kernel is
+	 * 			not available
+	 */
+	public static Kernel createVectorKernel() {
+		try {
+			return (Kernel) Class.forName("VectorKernel").getDeclaredConstructor().newInstance();
+		} catch(Exception e) {
+			return null;
+		} catch(LinkageError e) {
+			return null;
+		}
+	}
+
+	public void step() {
+		kernel.step(this);
+	}
+
+	public long getPieces() {
+		return pieces;
+	}
+
+	public long getGames() {
+		return games;
+	}
+
+	public long getClearedLines() {
+		return clearedLines;
+	}
+
+	public long getScore(int board) {
+		return scores[board];
+	}
+
+	public int getRow(int board, int row) {
+		return rows[row * capacity + board];
+	}
+
+	/**
+	 * the block of the board cannot move down. lock it, or end the game if
+	 * it is all above the visible area, and give the board a new block. the
+	 * bricks of the block have already been added to the rows by the kernel.
+	 */
+	void locked(int b) {
+		boolean hasFullLine = false;
+		if(refRows[b] + LAST_ROWS[types[b]][orientations[b]] < 0) {
+			//a new game on this board
+			games++;
+			scores[b] = 0;
+			for(int r = 0; r < 20; r++)
+				rows[r * capacity + b] = 0;
+		} else {
+			pieces++;
+			for(int d = 0; d < 4 && !hasFullLine; d++) {
+				int r = refRows[b] + d;
+				if(r >= 0 && r < 20 && rows[r * capacity + b] == FULL_LINE)
+					hasFullLine = true;
+			}
+		}
+		status[b] = hasFullLine ? CLEARING : FALLING;
+		spawn(b);
+	}
+
+	/**
+	 * the full lines of the board have been cleared by the kernel
+	 */
+	void cleared(int b, int count) {
+		scores[b] += LINE_SCORES[Math.min(count, 4)];
+		clearedLines += count;
+		status[b] = FALLING;
+	}
+
+	/**
+	 * a new block of random type, orientation and column, just above the
+	 * visible area, as in the constructor of TetrisBlock
+	 */
+	private void spawn(int b) {
+		int type = nextRandom(b, 7);
+		int orientation = nextRandom(b, 4);
+		int firstCol = FIRST_COLS[type][orientation];
+		int lastCol = LAST_COLS[type][orientation];
+		int col = nextRandom(b, 10 - lastCol + firstCol) - firstCol;
+		types[b] = type;
+		orientations[b] = orientation;
+		refRows[b] = -(LAST_ROWS[type][orientation] + 1);
+		int[] piece = PIECE_ROWS[type][orientation][col + 3];
+		for(int d = 0; d < 4; d++)
+			pieceRows[d * capacity + b] = piece[d];
+	}
+
+	private int nextRandom(int b, int bound) {
+		int x = randoms[b];
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		randoms[b] = x;
+		return (int) ((x & 0xFFFFFFFFL) % bound);
+	}
+
+	private static int[][][][] createPieceRows() {
+		int[][][][] pieceRows = new int[7][4][13][4];
+		int[] lines = new int[4];
+		for(int t = 0; t < 7; t++)
+			for(int o = 0; o < 4; o++)
+				for(int col = -3; col < 10; col++)
+					if(TetrisAI.toPieceLines(t, o, col, lines))
+						pieceRows[t][o][col + 3] = lines.clone();
+		return pieceRows;
+	}
+
+	/**
+	 * steps the boards one by one, with the same rules as the vector kernel
+	 *
+	 * @author Administrator
+	 *
+	 */
+	public static class ScalarKernel implements Kernel {
+
+		public void step(BatchEngine e) {
+			int cap = e.capacity;
+			int[] rows = e.rows;
+			for(int b = 0; b < e.numBoards; b++) {
+				if(e.status[b] == CLEARING) {
+					int count = 0;
+					for(int r = 0; r < 20; r++) {
+						if(rows[r * cap + b] != FULL_LINE)
+							continue;
+						count++;
+						for(int i = r; i > 0; i--)
+							rows[i * cap + b] = rows[(i - 1) * cap + b];
+						rows[b] = 0;
+					}
+					e.cleared(b, count);
+					continue;
+				}
+				int next = e.refRows[b] + 1;
+				boolean hits = false;
+				for(int d = 0; d < 4 && !hits; d++) {
+					int piece = e.pieceRows[d * cap + b];
+					int r = next + d;
+					if(piece == 0 || r < 0)
+						continue;
+					hits = r >= 20 || (rows[r * cap + b] & piece) != 0;
+				}
+				if(!hits) {
+					e.refRows[b] = next;
+					continue;
+				}
+				for(int d = 0; d < 4; d++) {
+					int r = e.refRows[b] + d;
+					if(r >= 0 && r < 20)
+						rows[r * cap + b] |= e.pieceRows[d * cap + b];
+				}
+				e.locked(b);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int boards = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Kernel vector = createVectorKernel();
+
+		if(vector != null) {
+			BatchEngine a = new BatchEngine(boards, 1, new ScalarKernel());
+			BatchEngine b = new BatchEngine(boards, 1, vector);
+			for(int s = 0; s < 500; s++) {
+				a.step();
+				b.step();
+			}
+			boolean isSame = Arrays.equals(a.rows, b.rows) && Arrays.equals(a.scores, b.scores)
+					&& a.pieces == b.pieces && a.games == b.games;
+			System.out.println("vector and scalar kernels " + (isSame ? "agree" : "DISAGREE") + " after 500 steps");
+		} else
+			System.out.println("vector kernel not available, run with --add-modules jdk.incubator.vector");
+
+		report("scalar kernel", new BatchEngine(boards, 2, new ScalarKernel()), steps);
+		if(vector != null)
+			report("vector kernel", new BatchEngine(boards, 2, vector), steps);
+		reportGames(boards, steps, threads);
+	}
+
+	private static void report(String name, BatchEngine engine, int steps) {
+		//warm up, then measure
+		for(int s = 0; s < steps / 4; s++)
+			engine.step();
+		long start = System.nanoTime();
+		for(int s = 0; s < steps; s++)
+			engine.step();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s: %.1f M board updates/s (%d boards, %d blocks, %d games)%n",
+				name, (double) engine.numBoards * steps / seconds / 1e6, engine.numBoards,
+				engine.getPieces(), engine.getGames());
+	}
+
+	/**
+	 * step a TetrisGame without a window per board, one update per step, on
+	 * a pool of threads
+	 */
+	private static void reportGames(int boards, final int steps, int threads) throws InterruptedException {
+		final TetrisGame[] games = new TetrisGame[boards];
+		for(int b = 0; b < boards; b++) {
+			games[b] = new TetrisGame("Medium", false);
+			games[b].setSeed(b);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		int perThread = (boards + threads - 1) / threads;
+		for(int t = 0; t < threads; t++) {
+			final int from = t * perThread;
+			final int to = Math.min(boards, from + perThread);
+			pool.execute(new Runnable() {
+				public void run() {
+					for(int b = from; b < to; b++) {
+						TetrisGame game = games[b];
+						game.start();
+						game.getGameCore().setNext();
+						//each step is one update interval later, so it updates about once
+						long now = 0;
+						for(int s = 0; s < steps; s++) {
+							if(!game.getGameStatus().equals("RUNNING")) {
+								game.renew();
+								game.start();
+								game.getGameCore().setNext();
+							}
+							now += game.getUpdateInterval();
+							game.step(now);
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("TetrisGame per board on %d threads: %.1f M board updates/s%n",
+				threads, (double) boards * steps / seconds / 1e6);
+	}
+}
@@ -0,0 +1,166 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            BoardFeatures.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+/**
+ * the shape of the solidified blocks of a game: holes, heights, bumpiness,
+ * wells, transitions and the rows that are close to full, for bots,
+ * analytics and the overlay of the side panel.
+ *
+ * the game keeps one int per line of its map as it changes a brick (see
+ * GameCore.setBrick), and builds the features from those 20 ints after
+ * every lock, clear, garbage rise, boom and rewind, so the 200 bricks of
+ * the map are never scanned. the features never change after they are
+ * built, so they are published with the frames and read on any thread.
+ *
+ * the features are those of TetrisAI: full lines that wait to be cleared
+ * are left out, the walls and the floor count as bricks, and the row and
+ * the column transitions add up to TetrisAI.TRANSITIONS.
+ *
+ * @author Administrator
+ *
+ */
+public class BoardFeatures {
+
+	//a row with at least this many bricks is close to full
+	public final static int NEAR_FULL = 8;
+	public final static BoardFeatures EMPTY = of(new int[20]);
+
+	private final int[] heights = new int[10];
+	private final int[] wellDepths = new int[10];
+	private int holes;
+	private int totalHeight;
+	private int maxHeight;
+	private int bumpiness;
+	private int wells;
+	private int rowTransitions;
+	private int columnTransitions;
+	private int nearFullRows;
+
+	private BoardFeatures() {}
+
+	/**
+	 * @param lines one int per line of the map, bit j for column j. they are
+	 * 			not changed.
+	 */
+	public static BoardFeatures of(int[] lines) {
+		BoardFeatures f = new BoardFeatures();
+		int[] l = lines.clone();
+		TetrisAI.clearFullLines(l);
+		int covered = 0;		//columns that have a brick above the current line
+		for(int i = 0; i < 20; i++) {
+			int line = l[i];
+			f.holes += Integer.bitCount(covered & ~line & TetrisAI.FULL_LINE);
+			int newColumns = line & ~covered;
+			while(newColumns != 0) {
+				int j = Integer.numberOfTrailingZeros(newColumns);
+				f.heights[j] = 20 - i;
+				newColumns &= newColumns - 1;
+			}
+			covered |= line;
+			if(line != 0) {
+				//walls are bit 0 and 11, the line is shifted into bits 1 to 10
+				int walled = (line << 1) | 1 | (1 << 11);
+				f.rowTransitions += Integer.bitCount((walled ^ (walled >> 1)) & 0x7FF);
+				if(Integer.bitCount(line) >= NEAR_FULL)
+					f.nearFullRows++;
+			}
+			if(i < 19)
+				f.columnTransitions += Integer.bitCount((line ^ l[i + 1]) & covered);
+			else
+				f.columnTransitions += Integer.bitCount(covered & ~line);
+		}
+		for(int j = 0; j < 10; j++) {
+			int h = f.heights[j];
+			f.totalHeight += h;
+			f.maxHeight = Math.max(f.maxHeight, h);
+			if(j < 9)
+				f.bumpiness += Math.abs(h - f.heights[j + 1]);
+			int left = j == 0 ? 20 : f.heights[j - 1];
+			int right = j == 9 ? 20 : f.heights[j + 1];
+			f.wellDepths[j] = Math.max(0, Math.min(left, right) - h);
+			f.wells += f.wellDepths[j];
+		}
+		return f;
+	}
+
+	/**
+	 * @return the number of empty bricks with a brick above them
+	 */
+	public int getHoles() {
+		return holes;
+	}
+
+	/**
+	 * @return the height of the highest brick of the column, 0 if it is
+	 * 			empty
+	 */
+	public int getHeight(int col) {
+		return heights[col];
+	}
+
+	/**
+	 * @return the sum of the heights of the columns
+	 */
+	public int getTotalHeight() {
+		return totalHeight;
+	}
+
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	/**
+	 * @return the sum of the differences of height between neighbor columns
+	 */
+	public int getBumpiness() {
+		return bumpiness;
+	}
+
+	/**
+	 * @return how far the column is below both its neighbors (or the wall),
+	 * 			0 if it is not a well
+	 */
+	public int getWellDepth(int col) {
+		return wellDepths[col];
+	}
+
+	/**
+	 * @return the sum of the depths of the wells
+	 */
+	public int getWells() {
+		return wells;
+	}
+
+	/**
+	 * @return the number of changes between a brick and an empty brick
+	 * 			along the rows that have bricks
+	 */
+	public int getRowTransitions() {
+		return rowTransitions;
+	}
+
+	/**
+	 * @return the number of changes between a brick and an empty brick down
+	 * 			the columns, from the highest brick to the floor
+	 */
+	public int getColumnTransitions() {
+		return columnTransitions;
+	}
+
+	/**
+	 * @return the number of rows with at least NEAR_FULL bricks
+	 */
+	public int getNearFullRows() {
+		return nearFullRows;
+	}
+
+	public String toString() {
+		return String.format("holes %d, max height %d, bumpiness %d, wells %d, transitions %d/%d, near full %d",
+				holes, maxHeight, bumpiness, wells, rowTransitions, columnTransitions, nearFullRows);
+	}
+}
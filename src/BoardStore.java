@@ -0,0 +1,162 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            BoardStore.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.Arrays;
+
+/**
+ * a list of boards that only keeps their bricks, for searches and replay
+ * analysis that look at millions of boards. a board is kept as the 200 codes
+ * of its bricks (see PackedBoard), two to a byte, so it takes 100 bytes,
+ * where a long[20] takes 176 and a Color[20][10] 1216. the bytes are kept
+ * in chunks of a fixed size, so the store grows without copying what it
+ * holds and without one very large array.
+ *
+ * a store is not safe for use by several threads at once.
+ *
+ * @author Administrator
+ *
+ */
+public class BoardStore {
+
+	public final static int BOARD_BYTES = 100;
+	private final static int LINE_BYTES = 5;
+	private final static int CHUNK_BOARDS = 1 << 14;		//1.6 MB a chunk
+	private byte[][] chunks = new byte[0][];
+	private int size;
+
+	/**
+	 * add a board at the end
+	 *
+	 * @param rows the 20 lines of the board, packed as in PackedBoard
+	 * @return the index of the board
+	 */
+	public int add(long[] rows) {
+		if(size == Integer.MAX_VALUE)
+			throw new IllegalStateException("the store is full");
+		int chunk = size / CHUNK_BOARDS;
+		if(chunk == chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunk + 1);
+			chunks[chunk] = new byte[CHUNK_BOARDS * BOARD_BYTES];
+		}
+		byte[] bytes = chunks[chunk];
+		int offset = (size % CHUNK_BOARDS) * BOARD_BYTES;
+		for(int i = 0; i < 20; i++) {
+			long row = rows[i];
+			for(int b = 0; b < LINE_BYTES; b++, offset++)
+				bytes[offset] = (byte) (row >>> (8*b));
+		}
+		return size++;
+	}
+
+	/**
+	 * copy a board into rows
+	 *
+	 * @param rows 20 longs, filled with the lines of the board, packed as in
+	 * 			PackedBoard
+	 */
+	public void get(int index, long[] rows) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		byte[] bytes = chunks[index / CHUNK_BOARDS];
+		int offset = (index % CHUNK_BOARDS) * BOARD_BYTES;
+		for(int i = 0; i < 20; i++) {
+			long row = 0;
+			for(int b = 0; b < LINE_BYTES; b++, offset++)
+				row |= (bytes[offset] & 0xFFL) << (8*b);
+			rows[i] = row;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * forget every board, and let go of the memory
+	 */
+	public void clear() {
+		chunks = new byte[0][];
+		size = 0;
+	}
+
+	/**
+	 * estimate the memory used by the store, on a 64 bit JVM with
+	 * compressed references
+	 *
+	 * @return the estimated number of bytes
+	 */
+	public long estimateBytes() {
+		//a chunk: 16 header + its bytes, the array of chunks: 16 + 4 each
+		return chunks.length * (16L + CHUNK_BOARDS * BOARD_BYTES) + 16 + 4 * chunks.length;
+	}
+
+	/**
+	 * keep the boards of bot games, one for each block, and report the
+	 * memory used per board, as measured on the heap and as estimated for
+	 * the other ways to keep a board.
+	 *
+	 * usage: BoardStore [boards]
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int boards = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		//the same boards, hashed as they are added and as they are read back
+		long addedHash = 0;
+		long readHash = 0;
+		long heapBefore = usedHeap();
+		BoardStore store = new BoardStore();
+		long start = System.nanoTime();
+		for(int g = 0; store.size() < boards; g++) {
+			TetrisGame game = new TetrisGame("Easy", false);
+			game.setSeed(g);
+			game.setBot(new TetrisAI());
+			game.start();
+			game.getGameCore().setNext();
+			TetrisGame.GameCore core = game.getGameCore();
+			int pieces = -1;
+			for(long now = 4000000; game.getGameStatus().equals("RUNNING") && store.size() < boards; now += 4000000) {
+				game.step(now);
+				if(core.getPieceStats().getPieces() != pieces) {
+					pieces = core.getPieceStats().getPieces();
+					store.add(core.getRows());
+					addedHash = addedHash * 31 + Arrays.hashCode(core.getRows());
+				}
+			}
+		}
+		double addSeconds = (System.nanoTime() - start) / 1e9;
+		long heapAfter = usedHeap();
+		long[] rows = new long[20];
+		start = System.nanoTime();
+		for(int k = 0; k < store.size(); k++) {
+			store.get(k, rows);
+			readHash = readHash * 31 + Arrays.hashCode(rows);
+		}
+		double readNanos = (double) (System.nanoTime() - start) / store.size();
+		if(readHash != addedHash)
+			throw new IllegalStateException("the boards read back are not the boards added");
+		//Color[20][10]: 16 + 20 references, and 20 lines of 16 + 10 references
+		long colorBoard = 16 + 20 * 4 + 20 * (16 + 10 * 4);
+		//long[20]: 16 + 20 longs
+		long packedBoard = 16 + 20 * 8;
+		System.out.printf("%d boards (%.1f s to play and keep them), %.0f ns to read one back%n",
+				store.size(), addSeconds, readNanos);
+		System.out.printf("bytes per board: Color[20][10] %d, long[20] %d, BoardStore %.1f (estimated), %.1f (heap)%n",
+				colorBoard, packedBoard, (double) store.estimateBytes() / store.size(),
+				(double) (heapAfter - heapBefore) / store.size());
+		System.out.printf("%d boards as Color[20][10]: %.0f MB, in a BoardStore: %.0f MB%n",
+				store.size(), (double) colorBoard * store.size() / (1 << 20),
+				(double) store.estimateBytes() / (1 << 20));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int k = 0; k < 3; k++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
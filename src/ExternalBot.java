@@ -0,0 +1,471 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            ExternalBot.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * lets a program outside of the game play it, by talking to it over its
+ * standard input and output. the program is started as a subprocess.
+ *
+ * the protocol is one message per line, with fields separated by spaces.
+ * the game sends
+ *   hello 1
+ *       once, the version of the protocol
+ *   piece id type orientation row col next hold board
+ *       asks where to put a block. type, orientation, row and col are those
+ *       of the block as it appears (see TetrisBlock), next is the type of
+ *       the next block or -1 if it is not known yet, hold is 1 if hold can
+ *       be used. board is the 20 lines from the top, each as 3 hex digits
+ *       where bit j is column j, with full lines already cleared.
+ *   quit
+ * and the program answers each piece with one of
+ *   place id orientation col
+ *       move the block to the orientation and reference column, and drop it
+ *   keys id moves
+ *       make the moves in order: L left, R right, D down, Z counter
+ *       clockwise, X clockwise, S drop
+ *   hold id
+ *       hold the block. the game then asks for the new block.
+ * answers to a piece that is no longer asked for are ignored. an answer
+ * that cannot be read, or that places a block in an orientation that does
+ * not exist, is dropped, and the piece is asked for again.
+ *
+ * requests are pipelined: as soon as a block is placed, the game works out
+ * what the board will look like and asks about the next block, so the
+ * program thinks while the block locks and the lines are cleared. when the
+ * next block appears, the answer is used if the board is what was expected,
+ * otherwise (garbage rose, a boom went off) the game asks again.
+ *
+ * a blocking bot waits for each answer, so a game without a window can be
+ * stepped as fast as the program answers. a bot that does not block lets
+ * the block fall while the program thinks, as for a player.
+ *
+ * usage: ExternalBot [games] [difficulty] [command ...]
+ * plays the games without a window, and reports the scores and the round
+ * trip time of the moves. without a command, the ReferenceBot is used.
+ *
+ * @author Administrator
+ *
+ */
+public class ExternalBot extends TetrisAI {
+
+	public final static int VERSION = 1;
+	private final static long ANSWER_TIMEOUT = 10000;	//ms a blocking bot waits for an answer
+	private final static long STEP = 4000000;			//4 ms of game time
+	private final static long MAX_GAME_TIME = 3600L * 1000000000L;
+
+	private final Process process;
+	private final Writer out;
+	private final boolean isBlocking;
+	//answers read by the reader thread, in the order they arrived
+	private final LinkedBlockingQueue<Answer> answers = new LinkedBlockingQueue<Answer>();
+	//answers to requests that are not asked for yet
+	private final Map<Long, Answer> earlyAnswers = new HashMap<Long, Answer>();
+	private volatile boolean isAlive = true;
+	private long nextId;
+	private Request awaited;			//the request for the current block
+	private Request speculative;		//the request for the next block, sent ahead
+	private TetrisBlock lastPlayed;
+	//round trip and stall times in nanoseconds, one per answered request
+	private long[] roundTrips = new long[1024];
+	private long[] stalls = new long[1024];
+	private int numMoves;
+	private int hits, misses;			//speculative requests used and wasted
+	private int badAnswers;				//answers dropped because they could not be used
+
+	/**
+	 * a request that has been sent
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private static class Request {
+		final long id;
+		final TetrisBlock block;
+		final int[] lines;
+		final boolean canHold;
+		final long sentAt;
+		long neededAt;			//when the block appeared, 0 if it has not
+
+		Request(long id, TetrisBlock block, int[] lines, boolean canHold, long sentAt) {
+			this.id = id;
+			this.block = block;
+			this.lines = lines;
+			this.canHold = canHold;
+			this.sentAt = sentAt;
+		}
+	}
+
+	/**
+	 * an answer read from the program
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private static class Answer {
+		final long id;
+		final String[] parts;
+		final long receivedAt;
+
+		Answer(long id, String[] parts, long receivedAt) {
+			this.id = id;
+			this.parts = parts;
+			this.receivedAt = receivedAt;
+		}
+	}
+
+	/**
+	 * start the program
+	 *
+	 * @param command the program and its arguments
+	 * @param isBlocking whether play waits for each answer
+	 */
+	public ExternalBot(String[] command, boolean isBlocking) throws IOException {
+		this.isBlocking = isBlocking;
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		process = builder.start();
+		out = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII);
+		Thread reader = new Thread("ExternalBot reader") {
+			public void run() {
+				readAnswers();
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		send("hello " + VERSION);
+	}
+
+	/**
+	 * @return the command that starts the ReferenceBot with this JVM
+	 */
+	public static String[] referenceBotCommand() {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new String[]{java, "-cp", System.getProperty("java.class.path"), "ReferenceBot"};
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		String difficulty = args.length > 1 ? args[1] : "Medium";
+		String[] command = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : referenceBotCommand();
+		ExternalBot bot = new ExternalBot(command, true);
+		long start = System.nanoTime();
+		long pieces = 0;
+		try {
+			for(int g = 0; g < games; g++) {
+				TetrisGame game = new TetrisGame(difficulty, false);
+				game.setSeed(g);
+				game.setBot(bot);
+				game.start();
+				game.getGameCore().setNext();
+				int movesBefore = bot.numMoves;
+				for(long now = STEP; now < MAX_GAME_TIME && game.getGameStatus().equals("RUNNING"); now += STEP)
+					game.step(now);
+				game.stop();
+				pieces += bot.numMoves - movesBefore;
+				System.out.printf("game %d: score %d, level %d%n", g, game.getGameCore().getScore(),
+						game.getGameCore().getLevel());
+			}
+		} finally {
+			bot.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d moves in %.2f s (%.0f moves/s)%n", pieces, seconds, pieces / seconds);
+		System.out.println(bot.getLatencyReport());
+	}
+
+	/**
+	 * place the current block as the program answers. the answer for a
+	 * block is asked for once, and used once.
+	 */
+	public void play(TetrisGame game) {
+		if(!isAlive)
+			return;
+		TetrisGame.GameCore core = game.getGameCore();
+		TetrisBlock curr = core.getCurrent();
+		if(curr == lastPlayed)
+			return;
+		if(awaited == null || awaited.block != curr) {
+			int[] lines = boardLines(core);
+			if(speculative != null && speculative.block == curr && speculative.canHold == core.canHold()
+					&& Arrays.equals(speculative.lines, lines)) {
+				awaited = speculative;
+				hits++;
+			} else {
+				if(speculative != null)
+					misses++;
+				awaited = request(curr, lines, core.canHold(), core.getNext());
+			}
+			speculative = null;
+			awaited.neededAt = System.nanoTime();
+		}
+		Answer answer = takeAnswer(awaited.id);
+		if(answer == null)
+			return;
+		recordMove(answer.receivedAt - awaited.sentAt, answer.receivedAt - awaited.neededAt);
+		awaited = null;
+		String kind = answer.parts[0];
+		if(kind.equals("hold") && core.canHold()) {
+			core.hold();
+			return;
+		}
+		if(kind.equals("place")) {
+			int[] place = readPlace(answer.parts);
+			if(place == null) {
+				//asked again in the next step
+				badAnswers++;
+				return;
+			}
+			lastPlayed = curr;
+			placing(game, curr, place[0], place[1]);
+			if(curr.moveTo(place[0], place[1]))
+				curr.drop();
+		} else if(kind.equals("keys") && answer.parts.length >= 3) {
+			lastPlayed = curr;
+			applyKeys(curr, answer.parts[2]);
+		} else if(kind.equals("hold")) {
+			//the hold is used up, the block falls where it is
+			lastPlayed = curr;
+		} else {
+			badAnswers++;
+			return;
+		}
+		speculate(core, curr);
+	}
+
+	/**
+	 * @return the orientation and column of a place answer, or null if they
+	 * 			are not numbers or the orientation does not exist
+	 */
+	private static int[] readPlace(String[] parts) {
+		if(parts.length < 4)
+			return null;
+		try {
+			int orientation = Integer.parseInt(parts[2]);
+			int col = Integer.parseInt(parts[3]);
+			if(orientation < 0 || orientation > 3)
+				return null;
+			return new int[]{orientation, col};
+		} catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * ask about the next block, on the board that the placed block will
+	 * leave once it is locked and the full lines are cleared
+	 */
+	private void speculate(TetrisGame.GameCore core, TetrisBlock placed) {
+		TetrisBlock next = core.getNext();
+		if(next == null)
+			return;
+		List<int[]> bricks = placed.getBricksWithin();
+		//a brick above the visible area ends the game
+		if(bricks.size() < 4)
+			return;
+		int[] lines = core.getLines().clone();
+		for(int[] b: bricks)
+			lines[b[0]] |= 1 << b[1];
+		clearFullLines(lines);
+		speculative = request(next, lines, true, null);
+	}
+
+	private static void applyKeys(TetrisBlock block, String moves) {
+		for(int k = 0; k < moves.length(); k++) {
+			switch(moves.charAt(k)) {
+			case 'L':
+				block.left();
+				break;
+			case 'R':
+				block.right();
+				break;
+			case 'D':
+				block.down();
+				break;
+			case 'Z':
+				block.spinCCW();
+				break;
+			case 'X':
+				block.spinCW();
+				break;
+			case 'S':
+				block.drop();
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the lines of the map, with the full lines cleared
+	 */
+	private static int[] boardLines(TetrisGame.GameCore core) {
+		int[] lines = core.getLines().clone();
+		clearFullLines(lines);
+		return lines;
+	}
+
+	private Request request(TetrisBlock block, int[] lines, boolean canHold, TetrisBlock next) {
+		long id = nextId++;
+		int[] ref = block.getReference();
+		StringBuilder sb = new StringBuilder(100);
+		sb.append("piece ").append(id).append(' ').append(block.getType()).append(' ')
+			.append(block.getOrientation()).append(' ').append(ref[0]).append(' ').append(ref[1]).append(' ')
+			.append(next == null ? -1 : next.getType()).append(' ').append(canHold ? 1 : 0).append(' ');
+		encodeBoard(lines, sb);
+		Request r = new Request(id, block, lines, canHold, System.nanoTime());
+		send(sb.toString());
+		return r;
+	}
+
+	/**
+	 * @return the answer to the request, or null if it has not come. a
+	 * 			blocking bot waits for it.
+	 */
+	private Answer takeAnswer(long id) {
+		Answer early = earlyAnswers.remove(id);
+		if(early != null)
+			return early;
+		try {
+			while(true) {
+				Answer a = isBlocking ? answers.poll(ANSWER_TIMEOUT, TimeUnit.MILLISECONDS) : answers.poll();
+				if(a == null) {
+					if(isBlocking) {
+						isAlive = false;
+						throw new IllegalStateException("the bot did not answer piece " + id);
+					}
+					return null;
+				}
+				if(a.id == id)
+					return a;
+				//an answer to a request sent ahead, keep it. older ones are stale
+				if(a.id > id)
+					earlyAnswers.put(a.id, a);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private void readAnswers() {
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),
+				StandardCharsets.US_ASCII));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				long now = System.nanoTime();
+				String[] parts = line.trim().split(" +");
+				if(parts.length < 2)
+					continue;
+				try {
+					answers.add(new Answer(Long.parseLong(parts[1]), parts, now));
+				} catch(NumberFormatException e) {}
+			}
+		} catch(IOException e) {}
+		isAlive = false;
+	}
+
+	private void send(String message) {
+		try {
+			out.write(message);
+			out.write('\n');
+			out.flush();
+		} catch(IOException e) {
+			isAlive = false;
+			if(isBlocking)
+				throw new IllegalStateException("cannot talk to the bot", e);
+		}
+	}
+
+	/**
+	 * tell the program to quit, and wait for it
+	 */
+	public void close() {
+		if(isAlive)
+			send("quit");
+		try {
+			out.close();
+		} catch(IOException e) {}
+		try {
+			if(!process.waitFor(5, TimeUnit.SECONDS))
+				process.destroy();
+		} catch(InterruptedException e) {
+			process.destroy();
+		}
+		isAlive = false;
+	}
+
+	private void recordMove(long roundTrip, long stall) {
+		if(numMoves == roundTrips.length) {
+			roundTrips = Arrays.copyOf(roundTrips, numMoves * 2);
+			stalls = Arrays.copyOf(stalls, numMoves * 2);
+		}
+		roundTrips[numMoves] = roundTrip;
+		stalls[numMoves] = Math.max(0, stall);
+		numMoves++;
+	}
+
+	/**
+	 * @return the round trip time (from the request to the answer) and the
+	 * 			stall time (from the block appearing to the answer) of the
+	 * 			moves so far, how many requests sent ahead were used, and
+	 * 			how many answers were dropped
+	 */
+	public String getLatencyReport() {
+		if(numMoves == 0)
+			return "no moves";
+		long[] rtt = Arrays.copyOf(roundTrips, numMoves);
+		long[] stall = Arrays.copyOf(stalls, numMoves);
+		Arrays.sort(rtt);
+		Arrays.sort(stall);
+		return String.format("%d moves, round trip p50 %.1f us, p99 %.1f us, max %.1f us; "
+				+ "stall p50 %.1f us, p99 %.1f us, max %.1f us; pipelined %d, asked again %d, bad answers %d",
+				numMoves, rtt[numMoves / 2] / 1e3, rtt[(int) (numMoves * 0.99)] / 1e3, rtt[numMoves - 1] / 1e3,
+				stall[numMoves / 2] / 1e3, stall[(int) (numMoves * 0.99)] / 1e3, stall[numMoves - 1] / 1e3,
+				hits, misses, badAnswers);
+	}
+
+	/**
+	 * append the lines as 3 hex digits each
+	 */
+	public static void encodeBoard(int[] lines, StringBuilder sb) {
+		for(int i = 0; i < 20; i++) {
+			int line = lines[i] & FULL_LINE;
+			sb.append(Character.forDigit(line >> 8, 16));
+			sb.append(Character.forDigit((line >> 4) & 15, 16));
+			sb.append(Character.forDigit(line & 15, 16));
+		}
+	}
+
+	/**
+	 * @return the lines encoded by encodeBoard
+	 */
+	public static int[] decodeBoard(String board) {
+		if(board.length() != 60)
+			throw new IllegalArgumentException("a board is 60 hex digits");
+		int[] lines = new int[20];
+		for(int i = 0; i < 20; i++)
+			lines[i] = Integer.parseInt(board.substring(3 * i, 3 * i + 3), 16);
+		return lines;
+	}
+}
@@ -0,0 +1,59 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GameEvent.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+/**
+ * something that happened in a game during one update. events are collected
+ * by the GameEventBus of the game and handed to the listeners in batches.
+ * 
+ * @author Administrator
+ *
+ */
+public class GameEvent {
+
+	public enum Type {
+		PIECE_SPAWNED,		//a new next block is generated, value is its type
+		PIECE_LOCKED,		//the dropping block is solidified, value is its type
+		LINES_CLEARED,		//value is the number of cleared lines
+		LEVEL_UP,			//value is the new level
+		BOOM_GRANTED,		//4 lines are cleared in one time
+		BOOM_FIRED,			//value is the number of lines cleared by the boom
+		GARBAGE_RISE,		//value is the number of risen lines
+		SCORE_CHANGED,		//value is the new score
+		REWOUND,			//the game is rewound to an earlier block, value is the score
+		GAME_OVER			//value is the final score
+	}
+
+	private final TetrisGame game;
+	private final Type type;
+	private final int value;
+
+	public GameEvent(TetrisGame game, Type type, int value) {
+		this.game = game;
+		this.type = type;
+		this.value = value;
+	}
+
+	/**
+	 * @return the game in which the event happened
+	 */
+	public TetrisGame getGame() {
+		return game;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getValue() {
+		return value;
+	}
+
+	public String toString() {
+		return type + "(" + value + ")";
+	}
+}
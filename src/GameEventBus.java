@@ -0,0 +1,114 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GameEventBus.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * collects the events of a game and delivers them to the listeners. the game
+ * posts events while it updates, and flushes the bus at the end of each
+ * update. flushed events are handed to the event dispatch thread in one
+ * batch; if the EDT has not picked up the last batch yet (for example, when
+ * the game updates faster than the screen is painted), the new events are
+ * appended to it, so the listeners are called at most once per frame.
+ * 
+ * @author Administrator
+ *
+ */
+public class GameEventBus {
+
+	private final List<GameListener> listeners = new CopyOnWriteArrayList<GameListener>();
+	private final boolean dispatchOnEdt;
+	private ArrayList<GameEvent> pending = new ArrayList<GameEvent>();		//posted but not flushed
+	private ArrayList<GameEvent> flushed = new ArrayList<GameEvent>();		//waiting for the EDT
+	private ArrayList<GameEvent> dispatching = new ArrayList<GameEvent>();	//being delivered
+	private boolean hasScheduled;		//whether a dispatch is already waiting on the EDT
+	private final Runnable dispatcher = new Runnable() {
+		public void run() {
+			dispatch();
+		}
+	};
+
+	public GameEventBus() {
+		this(true);
+	}
+
+	/**
+	 * @param dispatchOnEdt if false, the listeners are called directly on the
+	 * 			thread that flushes the bus. used by games without a window.
+	 */
+	public GameEventBus(boolean dispatchOnEdt) {
+		this.dispatchOnEdt = dispatchOnEdt;
+	}
+
+	public void addListener(GameListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(GameListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * record an event. it is not delivered until the bus is flushed.
+	 */
+	public synchronized void post(GameEvent event) {
+		pending.add(event);
+	}
+
+	/**
+	 * hand the posted events to the listeners. called by the game at the end
+	 * of each update.
+	 */
+	public void flush() {
+		synchronized(this) {
+			if(pending.isEmpty())
+				return;
+			if(listeners.isEmpty()) {
+				pending.clear();
+				return;
+			}
+			if(dispatchOnEdt) {
+				flushed.addAll(pending);
+				pending.clear();
+				if(hasScheduled)
+					return;
+				hasScheduled = true;
+			} else {
+				ArrayList<GameEvent> temp = flushed;
+				flushed = pending;
+				pending = temp;
+			}
+		}
+		if(dispatchOnEdt)
+			SwingUtilities.invokeLater(dispatcher);
+		else
+			dispatch();
+	}
+
+	/**
+	 * deliver the flushed events. the lists are swapped rather than copied so
+	 * that the game can keep posting while the listeners are running.
+	 */
+	private void dispatch() {
+		ArrayList<GameEvent> events;
+		synchronized(this) {
+			events = flushed;
+			flushed = dispatching;
+			dispatching = events;
+			hasScheduled = false;
+		}
+		if(!events.isEmpty())
+			for(GameListener l: listeners)
+				l.gameEventsFired(events);
+		events.clear();
+	}
+}
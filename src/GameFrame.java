@@ -0,0 +1,127 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GameFrame.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Color;
+import java.util.List;
+
+/**
+ * what a game looks like at one moment: the solidified blocks, the dropping
+ * block and the numbers in the side panel. a frame never changes after it is
+ * published by the game, so a renderer on another thread can read it without
+ * any lock.
+ *
+ * the map is copied as 20 packed lines (see PackedBoard), 160 bytes, and
+ * its bricks only become colors when they are painted. a renderer can tell
+ * which lines have changed since the last frame by comparing the lines.
+ *
+ * @author Administrator
+ *
+ */
+public class GameFrame {
+
+	private final long[] rows;			//the lines of the map, packed as in PackedBoard
+	private final int[][] bricks;		//bricks of the dropping block within the visible area
+	private final int[][] ghostBricks;	//bricks of its ghost within the visible area
+	private final Color color;			//color of the dropping block
+	private final int nextType;			//-1 if there is no next block
+	private final int score;
+	private final int level;
+	private final boolean hasBoom;
+	private final String status;
+	private final BoardFeatures features;
+	private final long sequence;		//frames of a game are numbered from 0
+
+	public GameFrame(long[] rows, List<int[]> bricks, List<int[]> ghostBricks, Color color, int nextType,
+			int score, int level, boolean hasBoom, String status, BoardFeatures features, long sequence) {
+		this.rows = rows.clone();
+		this.bricks = bricks.toArray(new int[bricks.size()][]);
+		this.ghostBricks = ghostBricks.toArray(new int[ghostBricks.size()][]);
+		this.color = color;
+		this.nextType = nextType;
+		this.score = score;
+		this.level = level;
+		this.hasBoom = hasBoom;
+		this.status = status;
+		this.features = features;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return the line of the map at the row, packed as in PackedBoard
+	 */
+	public long getRow(int row) {
+		return rows[row];
+	}
+
+	/**
+	 * @return the color of a brick of the map, null if it is empty
+	 */
+	public Color getBrick(int row, int col) {
+		return PackedBoard.toColor(PackedBoard.get(rows[row], col));
+	}
+
+	public int getNumBricks() {
+		return bricks.length;
+	}
+
+	/**
+	 * @return the row and column of a brick of the dropping block. it must
+	 * 			not be changed.
+	 */
+	public int[] getBrickOfBlock(int index) {
+		return bricks[index];
+	}
+
+	public int getNumGhostBricks() {
+		return ghostBricks.length;
+	}
+
+	/**
+	 * @return the row and column of a brick of the ghost, where the dropping
+	 * 			block would land. it must not be changed.
+	 */
+	public int[] getGhostBrick(int index) {
+		return ghostBricks[index];
+	}
+
+	public Color getBlockColor() {
+		return color;
+	}
+
+	public int getNextType() {
+		return nextType;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public boolean hasBoom() {
+		return hasBoom;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the features of the board, as of the last lock, clear, garbage
+	 * 			rise, boom or rewind
+	 */
+	public BoardFeatures getFeatures() {
+		return features;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+}
@@ -0,0 +1,148 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GameHistory.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+/**
+ * the last few states of a game, one for each block, so that the game can be
+ * rewound block by block. when the history is full, the oldest state is
+ * overwritten by the newest.
+ *
+ * a state copies the map as its 20 packed lines (see PackedBoard), 176
+ * bytes, so a state never shares anything with the game or with the other
+ * states, and costs the same whatever the game did.
+ *
+ * @author Administrator
+ *
+ */
+public class GameHistory {
+
+	private final Snapshot[] slots;
+	private int newest = -1;
+	private int size;
+
+	/**
+	 * the state of a game when a block appears. filled and read by GameCore.
+	 *
+	 * @author Administrator
+	 *
+	 */
+	static class Snapshot {
+		final long[] rows = new long[20];
+		int currType, currOrientation, currRow, currCol;
+		int nextType, nextOrientation, nextRow, nextCol;	//nextType is -1 if there is no next block
+		int score, level, numClearedLines, boomCounter;
+		boolean hasBoom, hasHeld;
+		double updateRate;
+		final int[] needClearLines = new int[4];
+		int numNeedClearLines;
+	}
+
+	/**
+	 * @param capacity the number of states kept
+	 */
+	public GameHistory(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		slots = new Snapshot[capacity];
+		for(int i = 0; i < capacity; i++)
+			slots[i] = new Snapshot();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * @return the slot for a new state. it is the slot of the oldest state
+	 * 			if the history is full, so nothing is created.
+	 */
+	Snapshot push() {
+		newest = (newest + 1) % slots.length;
+		if(size < slots.length)
+			size++;
+		return slots[newest];
+	}
+
+	/**
+	 * @return the newest state, or null if there is none
+	 */
+	Snapshot peek() {
+		return size == 0 ? null : slots[newest];
+	}
+
+	/**
+	 * forget the newest state
+	 */
+	void pop() {
+		if(size == 0)
+			return;
+		newest = (newest + slots.length - 1) % slots.length;
+		size--;
+	}
+
+	public void clear() {
+		while(size > 0)
+			pop();
+		newest = -1;
+	}
+
+	/**
+	 * estimate the memory used by the states, on a 64 bit JVM with
+	 * compressed references
+	 *
+	 * @return the estimated number of bytes
+	 */
+	public long estimateBytes() {
+		//Snapshot: 12 header + 14 ints + 1 double + 2 references + 2 booleans,
+		//padded to 88. long[20]: 16 + 160, int[4]: 16 + 16
+		return size * (88L + 176 + 32);
+	}
+
+	/**
+	 * play bot games with a long history, and report the memory used per
+	 * state and how long it takes to rewind.
+	 *
+	 * usage: GameHistory [games] [capacity]
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		long states = 0;
+		long bytes = 0;
+		long rewinds = 0;
+		long rewindNanos = 0;
+		for(int g = 0; g < games; g++) {
+			TetrisGame game = new TetrisGame("Easy", false);
+			game.setSeed(g);
+			game.getGameCore().setHistorySize(capacity);
+			game.setBot(new TetrisAI());
+			game.start();
+			game.getGameCore().setNext();
+			for(long now = 4000000; game.getGameStatus().equals("RUNNING"); now += 4000000)
+				game.step(now);
+			GameHistory history = game.getGameCore().getHistory();
+			states += history.size();
+			bytes += history.estimateBytes();
+			long start = System.nanoTime();
+			while(history.size() > 1) {
+				game.getGameCore().rewind();
+				rewinds++;
+			}
+			rewindNanos += System.nanoTime() - start;
+		}
+		//a full copy of the map as colors: 20 lines of 10 references
+		long colorCopy = 88 + 96 + 32 + 20 * 56;
+		System.out.printf("%d states in %d games: %.0f bytes per state (with the map as colors: %d bytes)%n",
+				states, games, (double) bytes / states, colorCopy);
+		System.out.printf("%d rewinds: %.2f us per rewind%n", rewinds, rewindNanos / 1e3 / rewinds);
+	}
+}
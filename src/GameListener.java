@@ -0,0 +1,29 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GameListener.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.List;
+
+/**
+ * a listener that is told about the events of a game. instead of being called
+ * once for every event, it receives all the events since the last call in the
+ * order they happened, so that a panel can repaint only once for a batch.
+ * 
+ * @author Administrator
+ *
+ */
+public interface GameListener {
+
+	/**
+	 * called on the event dispatch thread, unless the bus of the game is set
+	 * to dispatch on the game thread.
+	 * 
+	 * @param events the events since the last call, never empty. the list
+	 * 			must not be kept after the call returns.
+	 */
+	void gameEventsFired(List<GameEvent> events);
+}
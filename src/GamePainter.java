@@ -0,0 +1,179 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GamePainter.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * paints the frames of a game, for GameCore and the other views. it keeps
+ * the solidified blocks in an image, and only redraws the lines that are
+ * different from the lines it painted last time, looking up the colors of
+ * their bricks as they are drawn.
+ *
+ * a painter keeps an image, so each surface a game is painted on needs its
+ * own painter, used by one thread at a time.
+ *
+ * @author Administrator
+ *
+ */
+public class GamePainter {
+
+	//where the next block is shown in the side panel
+	private final static int[] NEXT_BLOCK_REF = new int[]{2, 1};
+	//no line is packed as all ones, so it marks a line that is not painted
+	private final static long NOT_PAINTED = -1L;
+	private BufferedImage baseBlocks;		//the solidified blocks
+	private final long[] paintedRows = new long[20];
+
+	public GamePainter() {
+		invalidate();
+	}
+
+	/**
+	 * paint the solidified blocks and the dropping block of the frame, in an
+	 * area of 150 x 300 at the origin of the graphics
+	 */
+	public void paintBoard(Graphics g, GameFrame frame) {
+		if(baseBlocks == null) {
+			baseBlocks = new BufferedImage(150, 300, BufferedImage.TYPE_INT_ARGB);
+			Graphics ig = baseBlocks.getGraphics();
+			ig.setColor(Color.darkGray);
+			ig.fillRect(0, 0, 150, 300);
+			ig.dispose();
+		}
+		Graphics ig = null;
+		for(int i = 0; i < 20; i++) {
+			long row = frame.getRow(i);
+			if(row == paintedRows[i])
+				continue;
+			if(ig == null)
+				ig = baseBlocks.getGraphics();
+			ig.setColor(Color.darkGray);
+			ig.fillRect(0, 15*i, 150, 15);
+			for(int j = 0; j < 10; j++) {
+				int code = PackedBoard.get(row, j);
+				if(code != PackedBoard.EMPTY)
+					drawBrick(15*j, 15*i, PackedBoard.toColor(code), ig);
+			}
+			paintedRows[i] = row;
+		}
+		if(ig != null)
+			ig.dispose();
+		g.drawImage(baseBlocks, 0, 0, null);
+		for(int k = 0; k < frame.getNumGhostBricks(); k++) {
+			int[] b = frame.getGhostBrick(k);
+			drawGhostBrick(15*b[1], 15*b[0], frame.getBlockColor(), g);
+		}
+		for(int k = 0; k < frame.getNumBricks(); k++) {
+			int[] b = frame.getBrickOfBlock(k);
+			drawBrick(15*b[1], 15*b[0], frame.getBlockColor(), g);
+		}
+	}
+
+	/**
+	 * forget the painted lines, so that the next frame is painted in full
+	 */
+	public void invalidate() {
+		Arrays.fill(paintedRows, NOT_PAINTED);
+	}
+
+	/**
+	 * paint the side panel (without the start button), in an area of 90 x 300
+	 * at the origin of the graphics
+	 * 
+	 * @param nextType the type of the next block, -1 if there is none
+	 */
+	public static void paintSidePanel(Graphics g, int nextType, int score, int level, boolean hasBoom) {
+		g.setColor(Color.gray);
+		g.fillRect(0, 0, 90, 300);
+		g.setColor(Color.white);
+		g.drawString("Next Block:", 10, 20);
+		g.setColor(Color.green);
+		g.drawString("Score:", 10, 120);
+		g.drawString(Integer.toString(score), 10, 140);
+		g.setColor(Color.yellow);
+		g.drawString("Level:", 10, 170);
+		g.drawString(Integer.toString(level), 10, 190);
+		if(hasBoom) {
+			g.setColor(Color.red.darker());
+			g.drawString("YOU HAS", 10, 220);
+			g.drawString("A BOOM!!!", 10, 235);
+		}
+		if(nextType != -1) {
+			Color c = TetrisBlock.TETRIS_COLORS[nextType];
+			TetrisBlock next = new TetrisBlock(null, nextType, 0, NEXT_BLOCK_REF);
+			for(int[] b: next.getBricksWithin())
+				drawBrick(15*b[1], 15*b[0], c, g);
+		}
+	}
+
+	/**
+	 * draw the outline of a brick, for the ghost of the dropping block
+	 */
+	public static void drawGhostBrick(int x, int y, Color color, Graphics g) {
+		g.setColor(color);
+		g.drawRect(x+1, y+1, 12, 12);
+	}
+
+	/**
+	 * draw a brick. the bricks of the 7 blocks are copied from sprites drawn
+	 * once, other colors are drawn each time.
+	 */
+	public static void drawBrick(int x, int y, Color color, Graphics g) {
+		BufferedImage[] sprites = Sprites.IMAGES;
+		for(int k = 0; k < sprites.length; k++)
+			if(color == TetrisBlock.TETRIS_COLORS[k]) {
+				g.drawImage(sprites[k], x, y, null);
+				return;
+			}
+		paintBrick(x, y, color, g);
+	}
+
+	/**
+	 * draw the sprites of the bricks now, rather than at the first paint
+	 * 
+	 * @return the number of sprites
+	 */
+	public static int loadSprites() {
+		return Sprites.IMAGES.length;
+	}
+
+	private static void paintBrick(int x, int y, Color color, Graphics g) {
+		g.setColor(color.brighter());
+		g.fillPolygon(new int[]{x, x+15, x}, new int[]{y, y, y+15}, 3);
+		g.setColor(color.darker());
+		g.fillPolygon(new int[]{x+15, x+15, x}, new int[]{y, y+15, y+15}, 3);
+		g.setColor(color);
+		g.fillRect(x+2, y+2, 10, 10);
+	}
+
+	/**
+	 * the sprites are in a class of their own, so that they are drawn once,
+	 * by the first thread that needs them, and the others wait for it
+	 * 
+	 * @author Administrator
+	 *
+	 */
+	private static class Sprites {
+
+		final static BufferedImage[] IMAGES = createSprites();
+
+		private static BufferedImage[] createSprites() {
+			BufferedImage[] images = new BufferedImage[TetrisBlock.TETRIS_COLORS.length];
+			for(int k = 0; k < images.length; k++) {
+				images[k] = new BufferedImage(15, 15, BufferedImage.TYPE_INT_ARGB);
+				Graphics g = images[k].getGraphics();
+				paintBrick(0, 0, TetrisBlock.TETRIS_COLORS[k], g);
+				g.dispose();
+			}
+			return images;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GameScheduler.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * steps many games from one thread. the games must be created without a
+ * window, so that they have no game loop of their own.
+ *
+ * the scheduler uses a fixed time step: every tick, the time of the games
+ * moves forward by exactly one tick interval, and every game is stepped to
+ * that time. if the thread falls behind the wall clock, it runs the missed
+ * ticks back to back (up to a limit) instead of making the step longer, so
+ * the games behave the same however busy the machine is. the renderer is
+ * called at most once per render interval, after the ticks.
+ *
+ * the games share one timer wheel, which is advanced once per tick before
+ * the games are stepped, so the cost of their timers does not grow with the
+ * number of games.
+ *
+ * @author Administrator
+ *
+ */
+public class GameScheduler {
+
+	private final static int MAX_CATCH_UP = 50;		//ticks run at most before rendering
+	private final List<TetrisGame> games = new CopyOnWriteArrayList<TetrisGame>();
+	private final TimerWheel WHEEL = new TimerWheel();
+	private final long tickInterval;
+	private final long renderInterval;
+	private final Runnable renderer;
+	private volatile boolean isRunning;
+	private Thread loop;
+	private long gameTime;
+
+	/**
+	 * @param tickRate the number of ticks in one second
+	 * @param renderRate the number of renders in one second
+	 * @param renderer called to render all the games, for example by
+	 * 			repainting the panel that draws them. can be null.
+	 */
+	public GameScheduler(int tickRate, int renderRate, Runnable renderer) {
+		tickInterval = 1000000000L / tickRate;
+		renderInterval = 1000000000L / renderRate;
+		this.renderer = renderer;
+	}
+
+	public void addGame(TetrisGame game) {
+		game.setTimerWheel(WHEEL);
+		games.add(game);
+	}
+
+	public void removeGame(TetrisGame game) {
+		games.remove(game);
+		game.setTimerWheel(null);
+	}
+
+	public TimerWheel getTimerWheel() {
+		return WHEEL;
+	}
+
+	public List<TetrisGame> getGames() {
+		return games;
+	}
+
+	/**
+	 * @return the time of the games in nanoseconds
+	 */
+	public long getGameTime() {
+		return gameTime;
+	}
+
+	public synchronized void start() {
+		if(isRunning)
+			return;
+		isRunning = true;
+		loop = new Thread("GameScheduler") {
+			public void run() {
+				runLoop();
+			}
+		};
+		loop.setDaemon(true);
+		loop.start();
+	}
+
+	/**
+	 * stop the loop and wait for the current tick to finish
+	 */
+	public synchronized void stop() {
+		isRunning = false;
+		if(loop != null && loop != Thread.currentThread()) {
+			try {loop.join();} catch (InterruptedException e) {}
+		}
+		loop = null;
+	}
+
+	private void runLoop() {
+		long nextTick = System.nanoTime();
+		long lastRender = nextTick - renderInterval;
+		while(isRunning) {
+			long now = System.nanoTime();
+			int ticks = 0;
+			while(now - nextTick >= 0 && ticks < MAX_CATCH_UP) {
+				tick();
+				nextTick += tickInterval;
+				ticks++;
+			}
+			//too far behind to catch up, forget the missed ticks
+			if(ticks == MAX_CATCH_UP)
+				nextTick = now + tickInterval;
+			if(renderer != null && now - lastRender >= renderInterval) {
+				renderer.run();
+				lastRender = now;
+			}
+			long wait = Math.min(nextTick, lastRender + renderInterval) - System.nanoTime();
+			if(wait > 0)
+				LockSupport.parkNanos(wait);
+		}
+	}
+
+	/**
+	 * move the time forward by one tick and step every game. can be called
+	 * directly to run the games faster than real time when the loop is not
+	 * started.
+	 */
+	public void tick() {
+		gameTime += tickInterval;
+		WHEEL.advance(gameTime);
+		for(TetrisGame game: games)
+			game.step(gameTime);
+	}
+}
@@ -0,0 +1,317 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            GeneticTuner.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * evolves the weights of TetrisAI with a genetic algorithm.
+ *
+ * every candidate (a vector of weights) plays the same seeded games, spread
+ * over the 4 difficulties, and its fitness is its average score. the games
+ * run without a window and faster than real time, but under the real rules:
+ * they are stepped like any other game, so the update rate of the
+ * difficulty, the garbage lines above level 5 and the boom all apply. the
+ * games of all candidates are played in parallel on a pool of threads.
+ *
+ * each new generation keeps the best candidates, and fills the rest with
+ * children of candidates picked by tournaments. a child is the average of
+ * its parents weighted by their fitness, sometimes mutated. weights are kept
+ * at unit length, since only their direction matters to the bot.
+ *
+ * after every generation the population is saved to the checkpoint file,
+ * and a run started with an existing checkpoint resumes from it.
+ *
+ * usage: GeneticTuner checkpoint [population] [generations] [games] [threads]
+ *
+ * @author Administrator
+ *
+ */
+public class GeneticTuner {
+
+	private final static String[] DIFFICULTIES = {"Easy", "Medium", "Hard", "Extreme"};
+	private final static long STEP = 4000000;			//4 ms of game time
+	private final static int TOURNAMENT_SIZE = 4;
+	private final static double ELITE_FRACTION = 0.1;
+	private final static double MUTATION_RATE = 0.1;
+	private final static double MUTATION_SIZE = 0.2;
+
+	private final int populationSize;
+	private final int gamesPerCandidate;
+	private final int maxPieces;			//a game is cut off after this many blocks
+	private final File checkpoint;
+	private final ExecutorService pool;
+	private final Random random;
+	private double[][] population;
+	private double[] fitness;
+	private int generation;
+	private long runSeed;
+
+	/**
+	 * @param checkpoint the file the population is saved to and resumed from
+	 * @param populationSize the number of candidates in a generation
+	 * @param gamesPerCandidate the number of games each candidate plays
+	 * @param maxPieces the number of blocks after which a game is cut off
+	 * @param threads the number of threads that play the games
+	 */
+	public GeneticTuner(File checkpoint, int populationSize, int gamesPerCandidate, int maxPieces, int threads)
+			throws IOException {
+		this.checkpoint = checkpoint;
+		this.populationSize = populationSize;
+		this.gamesPerCandidate = gamesPerCandidate;
+		this.maxPieces = maxPieces;
+		pool = Executors.newFixedThreadPool(threads);
+		if(checkpoint.exists()) {
+			load();
+			System.out.println("Resumed at generation " + generation + " from " + checkpoint);
+		} else {
+			runSeed = System.nanoTime();
+			population = new double[populationSize][];
+			Random r = new Random(runSeed);
+			for(int i = 0; i < populationSize; i++) {
+				double[] w = new double[TetrisAI.NUM_FEATURES];
+				for(int k = 0; k < w.length; k++)
+					w[k] = -r.nextDouble();
+				population[i] = normalize(w);
+			}
+			generation = 0;
+		}
+		random = new Random(runSeed + generation);
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		if(args.length < 1) {
+			System.out.println("usage: GeneticTuner checkpoint [population] [generations] [games] [threads]");
+			return;
+		}
+		int populationSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int generations = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int games = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		GeneticTuner tuner = new GeneticTuner(new File(args[0]), populationSize, games, 1000, threads);
+		try {
+			tuner.run(generations);
+		} finally {
+			tuner.shutdown();
+		}
+	}
+
+	/**
+	 * evolve until the population has reached the number of generations,
+	 * saving a checkpoint after each one
+	 */
+	public void run(int generations) throws Exception {
+		long start = System.nanoTime();
+		int startGeneration = generation;
+		while(generation < generations) {
+			long seed = runSeed * 31 + generation;
+			evaluate(seed);
+			int best = 0;
+			double mean = 0;
+			for(int i = 0; i < populationSize; i++) {
+				mean += fitness[i];
+				if(fitness[i] > fitness[best])
+					best = i;
+			}
+			mean /= populationSize;
+			double[] bestWeights = population[best];
+			population = breed();
+			generation++;
+			save(bestWeights);
+			double hours = (System.nanoTime() - start) / 3.6e12;
+			System.out.printf("generation %d: best %.0f, mean %.0f, %.1f generations/hour, weights %s%n",
+					generation, fitness[best], mean, (generation - startGeneration) / hours,
+					Arrays.toString(bestWeights));
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * play the games of every candidate in parallel. all candidates play the
+	 * same games, so their fitness is compared on equal terms.
+	 */
+	private void evaluate(long seed) throws Exception {
+		List<Future<Integer>> scores = new ArrayList<Future<Integer>>();
+		for(int i = 0; i < populationSize; i++) {
+			for(int g = 0; g < gamesPerCandidate; g++) {
+				final double[] weights = population[i];
+				final long gameSeed = seed * 1000003 + g;
+				final String difficulty = DIFFICULTIES[g % DIFFICULTIES.length];
+				scores.add(pool.submit(new Callable<Integer>() {
+					public Integer call() {
+						return playGame(weights, gameSeed, difficulty);
+					}
+				}));
+			}
+		}
+		fitness = new double[populationSize];
+		for(int i = 0; i < populationSize; i++) {
+			for(int g = 0; g < gamesPerCandidate; g++)
+				fitness[i] += scores.get(i * gamesPerCandidate + g).get();
+			fitness[i] /= gamesPerCandidate;
+		}
+	}
+
+	/**
+	 * play one game with the weights until it ends or is cut off
+	 *
+	 * @return the score of the game
+	 */
+	public int playGame(double[] weights, long seed, String difficulty) {
+		TetrisGame game = new TetrisGame(difficulty, false);
+		game.setSeed(seed);
+		game.setDifficulty(difficulty);
+		final int[] pieces = new int[1];
+		game.setBot(new TetrisAI(weights) {
+			protected void placing(TetrisGame game, TetrisBlock block, int orientation, int col) {
+				pieces[0]++;
+			}
+		});
+		game.start();
+		game.getGameCore().setNext();
+		long now = 0;
+		while(game.getGameStatus().equals("RUNNING") && pieces[0] <= maxPieces) {
+			now += STEP;
+			game.step(now);
+		}
+		game.stop();
+		return game.getGameCore().getScore();
+	}
+
+	/**
+	 * @return the next generation
+	 */
+	private double[][] breed() {
+		Integer[] order = new Integer[populationSize];
+		for(int i = 0; i < populationSize; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(fitness[b], fitness[a]);
+			}
+		});
+		double[][] next = new double[populationSize][];
+		int elites = Math.max(1, (int) (populationSize * ELITE_FRACTION));
+		for(int i = 0; i < elites; i++)
+			next[i] = population[order[i]];
+		for(int i = elites; i < populationSize; i++) {
+			int a = tournament();
+			int b = tournament();
+			double fa = Math.max(fitness[a], 1);
+			double fb = Math.max(fitness[b], 1);
+			double[] child = new double[TetrisAI.NUM_FEATURES];
+			for(int k = 0; k < child.length; k++) {
+				child[k] = (fa * population[a][k] + fb * population[b][k]) / (fa + fb);
+				if(random.nextDouble() < MUTATION_RATE)
+					child[k] += random.nextGaussian() * MUTATION_SIZE;
+			}
+			next[i] = normalize(child);
+		}
+		return next;
+	}
+
+	/**
+	 * @return the best of a few randomly picked candidates
+	 */
+	private int tournament() {
+		int best = random.nextInt(populationSize);
+		for(int i = 1; i < TOURNAMENT_SIZE; i++) {
+			int other = random.nextInt(populationSize);
+			if(fitness[other] > fitness[best])
+				best = other;
+		}
+		return best;
+	}
+
+	private static double[] normalize(double[] w) {
+		double length = 0;
+		for(double x: w)
+			length += x * x;
+		length = Math.sqrt(length);
+		if(length == 0)
+			return w;
+		for(int k = 0; k < w.length; k++)
+			w[k] /= length;
+		return w;
+	}
+
+	/**
+	 * save the population to a temporary file, then rename it over the
+	 * checkpoint, so that a run killed while saving keeps the last checkpoint
+	 */
+	private void save(double[] bestWeights) throws IOException {
+		File temp = new File(checkpoint.getPath() + ".tmp");
+		PrintWriter out = new PrintWriter(temp);
+		try {
+			out.println("seed " + runSeed);
+			out.println("generation " + generation);
+			out.println("best " + join(bestWeights));
+			for(double[] w: population)
+				out.println("weights " + join(w));
+		} finally {
+			out.close();
+		}
+		if(!temp.renameTo(checkpoint)) {
+			checkpoint.delete();
+			if(!temp.renameTo(checkpoint))
+				throw new IOException("cannot write " + checkpoint);
+		}
+	}
+
+	private void load() throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(checkpoint));
+		List<double[]> weights = new ArrayList<double[]>();
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] parts = line.trim().split(" ");
+				if(parts[0].equals("seed"))
+					runSeed = Long.parseLong(parts[1]);
+				else if(parts[0].equals("generation"))
+					generation = Integer.parseInt(parts[1]);
+				else if(parts[0].equals("weights")) {
+					double[] w = new double[TetrisAI.NUM_FEATURES];
+					for(int k = 0; k < w.length; k++)
+						w[k] = Double.parseDouble(parts[k + 1]);
+					weights.add(w);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if(weights.size() != populationSize)
+			throw new IOException("checkpoint has " + weights.size() + " candidates, expected " + populationSize);
+		population = weights.toArray(new double[weights.size()][]);
+	}
+
+	private static String join(double[] w) {
+		StringBuilder sb = new StringBuilder();
+		for(int k = 0; k < w.length; k++) {
+			if(k > 0)
+				sb.append(' ');
+			sb.append(w[k]);
+		}
+		return sb.toString();
+	}
+}
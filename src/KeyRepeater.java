@@ -0,0 +1,212 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            KeyRepeater.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.event.KeyEvent;
+
+/**
+ * moves the dropping block while the left, right or down key is held,
+ * timed by the game loop instead of the key repeat of the system.
+ *
+ * the key events only record that a key went down (see GameCore.pressKey);
+ * the moves are made here, in each step of the game, from the time of the
+ * step. a left or right key moves the block once when it is pressed, then,
+ * once it has been held for the delayed auto shift (DAS), once every auto
+ * repeat interval (ARR). with an ARR of 0 the block goes to the wall at
+ * once. if both keys are held, the one pressed last wins.
+ *
+ * the down key is a soft drop: the block moves down once when it is
+ * pressed, then once every soft drop interval, whatever the update rate of
+ * the game. when the block cannot move further down, the game is asked to
+ * lock it. with an interval of 0 the block goes to the floor at once, and
+ * is locked by the gravity as usual. a soft drop only lasts for one block,
+ * the key has to be pressed again for the next one.
+ *
+ * the timings can be set with the system properties tetris.das,
+ * tetris.arr and tetris.softDrop, in milliseconds.
+ *
+ * @author Administrator
+ *
+ */
+public class KeyRepeater {
+
+	private final TetrisGame game;
+	private long delayedAutoShift;		//all times in nanoseconds
+	private long autoRepeatRate;
+	private long softDropInterval;
+	//presses counted by the thread of the key events, read by the game loop
+	private volatile int leftPresses, rightPresses, downPresses;
+	private volatile int lastPressed;		//-1 for left, 1 for right
+	private int seenLeft, seenRight, seenDown;
+	private int direction;				//-1, 0 or 1
+	private long shiftStart;			//when the direction key was pressed
+	private boolean isCharged;			//whether the DAS has passed
+	private long nextShift;
+	private boolean isSoftDropping;
+	private TetrisBlock dropping;		//the block the soft drop was started for
+	private long nextDrop;
+
+	public KeyRepeater(TetrisGame game) {
+		this.game = game;
+		setDelayedAutoShift(Integer.getInteger("tetris.das", 167));
+		setAutoRepeatRate(Integer.getInteger("tetris.arr", 33));
+		setSoftDropInterval(Integer.getInteger("tetris.softDrop", 50));
+	}
+
+	public void setDelayedAutoShift(int millis) {
+		delayedAutoShift = millis * 1000000L;
+	}
+
+	/**
+	 * @param millis the interval between two repeated shifts, 0 to shift to
+	 * 			the wall at once
+	 */
+	public void setAutoRepeatRate(int millis) {
+		autoRepeatRate = millis * 1000000L;
+	}
+
+	/**
+	 * @param millis the interval between two rows of a soft drop, 0 to drop
+	 * 			to the floor at once
+	 */
+	public void setSoftDropInterval(int millis) {
+		softDropInterval = millis * 1000000L;
+	}
+
+	/**
+	 * @return whether the key is moved by the repeater
+	 */
+	public static boolean isRepeatKey(int keyCode) {
+		return keyCode == KeyEvent.VK_LEFT || keyCode == KeyEvent.VK_RIGHT || keyCode == KeyEvent.VK_DOWN;
+	}
+
+	/**
+	 * record that a key went down. called on the thread of the key events,
+	 * once per press, not for the repeats of the system.
+	 */
+	public void pressed(int keyCode) {
+		switch(keyCode) {
+		case KeyEvent.VK_LEFT:
+			lastPressed = -1;
+			leftPresses++;
+			break;
+		case KeyEvent.VK_RIGHT:
+			lastPressed = 1;
+			rightPresses++;
+			break;
+		case KeyEvent.VK_DOWN:
+			downPresses++;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * forget the presses made while the game was not running, and start the
+	 * DAS of a held key again from now
+	 */
+	public void reset(long now) {
+		seenLeft = leftPresses;
+		seenRight = rightPresses;
+		seenDown = downPresses;
+		shiftStart = now;
+		isCharged = false;
+		isSoftDropping = false;
+		if(direction != 0 && !isHeld(direction))
+			direction = 0;
+	}
+
+	/**
+	 * make the moves that are due at the given time
+	 *
+	 * @param now the time of the step, as given to TetrisGame.step
+	 * @return whether the soft drop has reached the floor and the block
+	 * 			should be locked now
+	 */
+	public boolean update(long now) {
+		TetrisGame.GameCore core = game.getGameCore();
+		updateShift(core, now);
+		return updateSoftDrop(core, now);
+	}
+
+	private void updateShift(TetrisGame.GameCore core, long now) {
+		int left = leftPresses;
+		int right = rightPresses;
+		boolean hasNewLeft = left != seenLeft;
+		boolean hasNewRight = right != seenRight;
+		seenLeft = left;
+		seenRight = right;
+		if(hasNewLeft || hasNewRight) {
+			int last = lastPressed;
+			//both pressed since the last step, the earlier one is a tap
+			if(hasNewLeft && hasNewRight)
+				core.shift(-last);
+			direction = last;
+			shiftStart = now;
+			isCharged = false;
+			core.shift(direction);
+		} else if(direction != 0 && !isHeld(direction)) {
+			//go back to the other key if it is still held
+			direction = isHeld(-direction) ? -direction : 0;
+			shiftStart = now;
+			isCharged = false;
+		}
+		if(direction == 0 || !isHeld(direction))
+			return;
+		if(!isCharged) {
+			if(now - shiftStart < delayedAutoShift)
+				return;
+			isCharged = true;
+			nextShift = shiftStart + delayedAutoShift;
+		}
+		if(autoRepeatRate == 0) {
+			while(core.shift(direction));
+			return;
+		}
+		while(now - nextShift >= 0) {
+			nextShift += autoRepeatRate;
+			if(!core.shift(direction)) {
+				//against a wall, try again in the next step
+				nextShift = now;
+				return;
+			}
+		}
+	}
+
+	private boolean updateSoftDrop(TetrisGame.GameCore core, long now) {
+		int down = downPresses;
+		if(down != seenDown) {
+			seenDown = down;
+			isSoftDropping = true;
+			dropping = core.getCurrent();
+			nextDrop = now;
+		} else if(isSoftDropping && (!core.isKeyHeld(KeyEvent.VK_DOWN) || core.getCurrent() != dropping)) {
+			isSoftDropping = false;
+			dropping = null;
+		}
+		if(!isSoftDropping)
+			return false;
+		if(softDropInterval == 0) {
+			while(core.softDrop());
+			return false;
+		}
+		while(now - nextDrop >= 0) {
+			nextDrop += softDropInterval;
+			if(!core.softDrop()) {
+				isSoftDropping = false;
+				dropping = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isHeld(int direction) {
+		return game.getGameCore().isKeyHeld(direction < 0 ? KeyEvent.VK_LEFT : KeyEvent.VK_RIGHT);
+	}
+}
@@ -0,0 +1,76 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            PackedBoard.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Color;
+
+/**
+ * how the bricks of a board are stored: every brick is a small index into
+ * a palette, 0 for empty and 1 to 7 for the colors of the blocks
+ * (TetrisBlock.TETRIS_COLORS), and the 10 bricks of a line are packed in
+ * one long, 4 bits each, the brick of column j in bits 4j to 4j+3. a board
+ * is 20 such longs, 176 bytes as a long[], where a Color[20][10] takes 1216
+ * bytes. a line is a value, so it can be copied and compared at once, and
+ * boards are turned into Colors only when they are painted.
+ *
+ * for keeping very many boards, see BoardStore, which takes 100 bytes a
+ * board.
+ *
+ * @author Administrator
+ *
+ */
+public class PackedBoard {
+
+	public final static int EMPTY = 0;
+	public final static int NUM_CODES = 8;		//empty and the 7 colors
+	//bit 0 of the brick of each column
+	private final static long LOW_BITS = 0x1111111111L;
+
+	private PackedBoard() {}
+
+	/**
+	 * @return the code of the brick at the column of the line
+	 */
+	public static int get(long line, int col) {
+		return (int) (line >>> (4*col)) & 0xF;
+	}
+
+	/**
+	 * @return the line with the brick at the column set to the code
+	 */
+	public static long with(long line, int col, int code) {
+		return line & ~(0xFL << (4*col)) | (long) code << (4*col);
+	}
+
+	/**
+	 * @return the line with one bit for each brick that is not empty, bit
+	 * 			j for column j, as the lines of TetrisAI
+	 */
+	public static int toBits(long line) {
+		long filled = (line | line >>> 1 | line >>> 2 | line >>> 3) & LOW_BITS;
+		int bits = 0;
+		while(filled != 0) {
+			bits |= 1 << (Long.numberOfTrailingZeros(filled) >>> 2);
+			filled &= filled - 1;
+		}
+		return bits;
+	}
+
+	/**
+	 * @return the code of a block type
+	 */
+	public static int codeOf(int type) {
+		return type + 1;
+	}
+
+	/**
+	 * @return the color of a code, null if it is empty
+	 */
+	public static Color toColor(int code) {
+		return code == EMPTY ? null : TetrisBlock.TETRIS_COLORS[code - 1];
+	}
+}
@@ -0,0 +1,104 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            PieceStats.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+/**
+ * counts the blocks placed in a game: how many of each type, how many lines
+ * they cleared, and how high the board got. kept by GameCore as blocks are
+ * locked and lines are cleared, and printed when a game with a window ends.
+ *
+ * only the lines cleared by the placed blocks are counted, not those of a
+ * boom. a rewind does not take a block back from the stats, since it has
+ * been placed all the same.
+ *
+ * @author Administrator
+ *
+ */
+public class PieceStats {
+
+	private final static String TYPE_NAMES = "IJLTSZO";		//in the order of TetrisBlock.I_BLOCK, ...
+	private final int[] piecesByType = new int[7];
+	private int pieces;
+	private int clearingPieces;		//pieces whose lock cleared a line
+	private int clearedLines;
+	private int maxHeight;
+
+	/**
+	 * count a locked block
+	 *
+	 * @param features the features of the board with the block locked
+	 */
+	public void pieceLocked(int type, BoardFeatures features) {
+		piecesByType[type]++;
+		pieces++;
+		maxHeight = Math.max(maxHeight, features.getMaxHeight());
+	}
+
+	/**
+	 * count the lines cleared by the last locked block
+	 */
+	public void linesCleared(int lines) {
+		if(lines <= 0)
+			return;
+		clearingPieces++;
+		clearedLines += lines;
+	}
+
+	public void clear() {
+		for(int k = 0; k < 7; k++)
+			piecesByType[k] = 0;
+		pieces = 0;
+		clearingPieces = 0;
+		clearedLines = 0;
+		maxHeight = 0;
+	}
+
+	public int getPieces() {
+		return pieces;
+	}
+
+	public int getPieces(int type) {
+		return piecesByType[type];
+	}
+
+	public int getClearingPieces() {
+		return clearingPieces;
+	}
+
+	public int getClearedLines() {
+		return clearedLines;
+	}
+
+	/**
+	 * @return the number of blocks placed for each cleared line, 2.5 at
+	 * 			best since a line has 10 bricks and a block 4. 0 if no line
+	 * 			has been cleared.
+	 */
+	public double getPiecesPerLine() {
+		return clearedLines == 0 ? 0 : (double) pieces / clearedLines;
+	}
+
+	/**
+	 * @return the highest the board has been after a lock
+	 */
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(pieces).append(" pieces (");
+		for(int k = 0; k < 7; k++) {
+			if(k > 0)
+				sb.append(' ');
+			sb.append(TYPE_NAMES.charAt(k)).append(' ').append(piecesByType[k]);
+		}
+		sb.append(String.format("), %d lines by %d pieces, %.2f pieces per line, max height %d",
+				clearedLines, clearingPieces, getPiecesPerLine(), maxHeight));
+		return sb.toString();
+	}
+}
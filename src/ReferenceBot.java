@@ -0,0 +1,65 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            ReferenceBot.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * a program that plays through the protocol of ExternalBot, with the
+ * search of TetrisAI. it shows how an engine outside of the game answers,
+ * and is used to measure the cost of the protocol itself.
+ *
+ * answers are written as soon as the requests that have come are answered,
+ * so several pipelined requests cost only one write.
+ *
+ * usage: ReferenceBot [weights ...]
+ *
+ * @author Administrator
+ *
+ */
+public class ReferenceBot {
+
+	public static void main(String[] args) throws IOException {
+		double[] weights = TetrisAI.DEFAULT_WEIGHTS;
+		if(args.length == TetrisAI.NUM_FEATURES) {
+			weights = new double[TetrisAI.NUM_FEATURES];
+			for(int k = 0; k < weights.length; k++)
+				weights[k] = Double.parseDouble(args[k]);
+		}
+		TetrisAI ai = new TetrisAI(weights);
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+		String line;
+		while((line = in.readLine()) != null) {
+			String[] parts = line.trim().split(" +");
+			if(parts[0].equals("quit"))
+				break;
+			if(parts[0].equals("piece") && parts.length >= 9) {
+				String id = parts[1];
+				int type = Integer.parseInt(parts[2]);
+				int orientation = Integer.parseInt(parts[3]);
+				int row = Integer.parseInt(parts[4]);
+				int col = Integer.parseInt(parts[5]);
+				int[] best = ai.findPlacement(ExternalBot.decodeBoard(parts[8]), type, row);
+				if(best != null) {
+					orientation = best[0];
+					col = best[1];
+				}
+				out.write("place " + id + " " + orientation + " " + col + "\n");
+			}
+			if(!in.ready())
+				out.flush();
+		}
+		out.flush();
+	}
+}
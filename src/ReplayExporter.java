@@ -0,0 +1,327 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            ReplayExporter.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * turns the frames of a game into images without a display, as a sequence
+ * of PNG files or as one animated GIF. a frame is painted as the window
+ * shows it: the board of GameCore on the left and the side panel of
+ * RightPanel on the right.
+ *
+ * the frames are recorded from a game without a window, stepped faster than
+ * real time, so a long game is recorded in a moment. a frame copies the map
+ * as 20 packed longs (see PackedBoard), 160 bytes, so keeping thousands of
+ * them costs little.
+ *
+ * painting and encoding are done on a pool of threads. each thread has its
+ * own painter, and the images are taken from a fixed pool and given back
+ * after they are written, so no image is created per frame. the frames of a
+ * GIF must be written in order, so the threads only paint them and the
+ * calling thread writes them.
+ *
+ * usage: ReplayExporter gif|png output [seed] [fps] [threads] [difficulty]
+ * output is a file for gif and a directory for png.
+ *
+ * @author Administrator
+ *
+ */
+public class ReplayExporter {
+
+	public final static int WIDTH = 240;
+	public final static int HEIGHT = 300;
+	private final static long STEP = 4000000;					//4 ms of game time
+	private final static long MAX_GAME_TIME = 3600L * 1000000000L;
+	//every color that is painted, so that a GIF frame is painted exactly
+	private final static IndexColorModel PALETTE = createPalette();
+
+	private final ExecutorService pool;
+	private final int numThreads;
+	private final ThreadLocal<GamePainter> painters = new ThreadLocal<GamePainter>() {
+		protected GamePainter initialValue() {
+			return new GamePainter();
+		}
+	};
+
+	/**
+	 * @param threads the number of threads that paint and encode
+	 */
+	public ReplayExporter(int threads) {
+		numThreads = threads;
+		pool = Executors.newFixedThreadPool(threads);
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		//encode in memory instead of through temporary files
+		ImageIO.setUseCache(false);
+		if(args.length < 2 || !(args[0].equals("gif") || args[0].equals("png"))) {
+			System.out.println("usage: ReplayExporter gif|png output [seed] [fps] [threads] [difficulty]");
+			return;
+		}
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		int fps = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		String difficulty = args.length > 5 ? args[5] : "Medium";
+
+		long start = System.nanoTime();
+		List<GameFrame> frames = record(seed, difficulty, fps);
+		long recorded = System.nanoTime();
+		ReplayExporter exporter = new ReplayExporter(threads);
+		try {
+			if(args[0].equals("gif"))
+				exporter.exportGif(frames, new File(args[1]), 1000 / fps);
+			else
+				exporter.exportPngs(frames, new File(args[1]));
+		} finally {
+			exporter.shutdown();
+		}
+		long exported = System.nanoTime();
+		System.out.printf("recorded %d frames in %.2f s, exported in %.2f s (%.0f frames/s) with %d threads%n",
+				frames.size(), (recorded - start) / 1e9, (exported - recorded) / 1e9,
+				frames.size() / ((exported - recorded) / 1e9), threads);
+	}
+
+	/**
+	 * play a seeded bot game without a window until it ends, and keep the
+	 * frame shown at each interval of game time
+	 *
+	 * @param fps the number of frames kept per second of game time
+	 * @return the frames, in order
+	 */
+	public static List<GameFrame> record(long seed, String difficulty, int fps) {
+		TetrisGame game = new TetrisGame(difficulty, false);
+		game.setSeed(seed);
+		game.setBot(new TetrisAI());
+		game.getGameCore().setPublishesFrames(true);
+		game.start();
+		game.getGameCore().setNext();
+		List<GameFrame> frames = new ArrayList<GameFrame>();
+		long frameInterval = 1000000000L / fps;
+		long nextFrame = 0;
+		for(long now = STEP; now < MAX_GAME_TIME && game.getGameStatus().equals("RUNNING"); now += STEP) {
+			game.step(now);
+			if(now >= nextFrame) {
+				GameFrame frame = game.getGameCore().getFrame();
+				if(frame != null)
+					frames.add(frame);
+				nextFrame += frameInterval;
+			}
+		}
+		game.stop();
+		return frames;
+	}
+
+	/**
+	 * paint a frame as the window shows it, in an area of WIDTH x HEIGHT
+	 */
+	public static void paintFrame(Graphics g, GameFrame frame, GamePainter painter) {
+		painter.paintBoard(g, frame);
+		g.translate(150, 0);
+		GamePainter.paintSidePanel(g, frame.getNextType(), frame.getScore(), frame.getLevel(), frame.hasBoom());
+		g.translate(-150, 0);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * write every frame to directory/frame-NNNNN.png
+	 */
+	public void exportPngs(List<GameFrame> frames, final File directory)
+			throws IOException, InterruptedException {
+		directory.mkdirs();
+		final BlockingQueue<BufferedImage> images = createImages(numThreads, BufferedImage.TYPE_INT_RGB);
+		List<Future<Void>> written = new ArrayList<Future<Void>>();
+		for(int k = 0; k < frames.size(); k++) {
+			final GameFrame frame = frames.get(k);
+			final File file = new File(directory, String.format("frame-%05d.png", k));
+			written.add(pool.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					BufferedImage image = images.take();
+					try {
+						paint(frame, image);
+						if(!ImageIO.write(image, "png", file))
+							throw new IOException("no PNG writer");
+					} finally {
+						images.put(image);
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> f: written)
+			get(f);
+	}
+
+	/**
+	 * write the frames to an animated GIF that loops forever
+	 *
+	 * @param delayMillis the time each frame is shown
+	 */
+	public void exportGif(List<GameFrame> frames, File file, int delayMillis)
+			throws IOException, InterruptedException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+		ImageOutputStream out = ImageIO.createImageOutputStream(file);
+		if(out == null)
+			throw new IOException("cannot write " + file);
+		//a frame holds its image until it is written, so there are as many
+		//frames in progress as images, and a thread never waits for an image
+		int inFlight = numThreads * 2;
+		final BlockingQueue<BufferedImage> images = createImages(inFlight, BufferedImage.TYPE_BYTE_INDEXED);
+		List<Future<BufferedImage>> painted = new ArrayList<Future<BufferedImage>>();
+		try {
+			writer.setOutput(out);
+			writer.prepareWriteSequence(null);
+			IIOMetadata metadata = null;
+			int submitted = 0;
+			for(int k = 0; k < frames.size(); k++) {
+				while(submitted < frames.size() && submitted < k + inFlight) {
+					final GameFrame frame = frames.get(submitted++);
+					painted.add(pool.submit(new Callable<BufferedImage>() {
+						public BufferedImage call() throws Exception {
+							BufferedImage image = images.take();
+							paint(frame, image);
+							return image;
+						}
+					}));
+				}
+				BufferedImage image = get(painted.get(k));
+				painted.set(k, null);
+				if(metadata == null)
+					metadata = createGifMetadata(writer, image, delayMillis);
+				writer.writeToSequence(new IIOImage(image, null, metadata), null);
+				images.put(image);
+			}
+			writer.endWriteSequence();
+		} finally {
+			for(Future<BufferedImage> f: painted)
+				if(f != null)
+					f.cancel(false);
+			writer.dispose();
+			out.close();
+		}
+	}
+
+	private void paint(GameFrame frame, BufferedImage image) {
+		Graphics g = image.getGraphics();
+		try {
+			paintFrame(g, frame, painters.get());
+		} finally {
+			g.dispose();
+		}
+	}
+
+	private static BlockingQueue<BufferedImage> createImages(int count, int type) {
+		BlockingQueue<BufferedImage> images = new ArrayBlockingQueue<BufferedImage>(count);
+		for(int k = 0; k < count; k++) {
+			if(type == BufferedImage.TYPE_BYTE_INDEXED)
+				images.add(new BufferedImage(WIDTH, HEIGHT, type, PALETTE));
+			else
+				images.add(new BufferedImage(WIDTH, HEIGHT, type));
+		}
+		return images;
+	}
+
+	private static <T> T get(Future<T> f) throws IOException, InterruptedException {
+		try {
+			return f.get();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException("failed to export a frame", e.getCause());
+		}
+	}
+
+	/**
+	 * the delay of every frame, and the NETSCAPE2.0 extension that makes the
+	 * GIF loop
+	 */
+	private static IIOMetadata createGifMetadata(ImageWriter writer, BufferedImage image, int delayMillis)
+			throws IOException {
+		IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+		String format = metadata.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+		IIOMetadataNode control = child(root, "GraphicControlExtension");
+		control.setAttribute("disposalMethod", "none");
+		control.setAttribute("userInputFlag", "FALSE");
+		control.setAttribute("transparentColorFlag", "FALSE");
+		control.setAttribute("delayTime", Integer.toString(Math.max(1, delayMillis / 10)));
+		control.setAttribute("transparentColorIndex", "0");
+
+		IIOMetadataNode extension = new IIOMetadataNode("ApplicationExtension");
+		extension.setAttribute("applicationID", "NETSCAPE");
+		extension.setAttribute("authenticationCode", "2.0");
+		extension.setUserObject(new byte[]{1, 0, 0});		//loop forever
+		child(root, "ApplicationExtensions").appendChild(extension);
+
+		metadata.setFromTree(format, root);
+		return metadata;
+	}
+
+	private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+		for(int k = 0; k < parent.getLength(); k++)
+			if(parent.item(k).getNodeName().equals(name))
+				return (IIOMetadataNode) parent.item(k);
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		parent.appendChild(node);
+		return node;
+	}
+
+	/**
+	 * @return the colors of the board, the blocks with their light and dark
+	 * 			edges, and the side panel
+	 */
+	private static IndexColorModel createPalette() {
+		LinkedHashSet<Integer> colors = new LinkedHashSet<Integer>();
+		for(Color c: new Color[]{Color.darkGray, Color.gray, Color.white, Color.black,
+				Color.green, Color.yellow, Color.red.darker()})
+			colors.add(c.getRGB());
+		for(Color c: TetrisBlock.TETRIS_COLORS) {
+			colors.add(c.getRGB());
+			colors.add(c.brighter().getRGB());
+			colors.add(c.darker().getRGB());
+		}
+		byte[] r = new byte[colors.size()];
+		byte[] g = new byte[colors.size()];
+		byte[] b = new byte[colors.size()];
+		int k = 0;
+		for(int rgb: colors) {
+			r[k] = (byte) (rgb >> 16);
+			g[k] = (byte) (rgb >> 8);
+			b[k] = (byte) rgb;
+			k++;
+		}
+		return new IndexColorModel(8, colors.size(), r, g, b);
+	}
+}
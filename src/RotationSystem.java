@@ -0,0 +1,406 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            RotationSystem.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * how a block is kicked when it spins into a wall, the floor or other
+ * bricks. for every type, orientation, direction of the spin and reference
+ * column, a table holds the offsets to try, in order; the block takes the
+ * first one where it fits, and does not spin if it fits nowhere. a spin is
+ * a lookup and one fit test per offset (see TetrisBlock.spinCCW).
+ *
+ * CLASSIC is the rotation of this game: a block that spins out of the floor
+ * is lifted until it is in, a block that spins out of a wall is shifted
+ * until it is in, and a block that then overlaps is tried one row higher.
+ * the shift only depends on the column, so it is in the table, and the
+ * lift only depends on the row, so it is a clamp to the lowest row of the
+ * block. no more than two offsets are ever tried.
+ *
+ * other systems are loaded from text, one line for each spin:
+ *
+ *     JLSTZ 0>R 0,0 -1,0 -1,1 0,-2 -1,-2
+ *
+ * the blocks (of IJLTSZO), the orientations as in the guideline (0 is how a
+ * block appears, R after a clockwise spin, then 2 and L), and the offsets
+ * as x,y with y up. lines starting with # are comments. spins that are not
+ * listed only try 0,0, and blocks are never lifted from the floor. SRS holds
+ * the kicks of the Super Rotation System.
+ *
+ * the shapes of this game are those of SRS, in the same 4 x 4 box, but each
+ * type starts from its own orientation: state 0 is the orientation whose
+ * bricks are the spawn shape of SRS (SPAWN_SHAPES), and every clockwise
+ * state is one orientation lower, since +1 is a counter-clockwise spin here.
+ * so state 0 is orientation 3 for I and J, 1 for L, 2 for T and 0 for S and
+ * Z. main checks every state of every type against the shapes of SRS.
+ *
+ * @author Administrator
+ *
+ */
+public class RotationSystem {
+
+	public final static int CCW = 0;
+	public final static int CW = 1;
+	private final static String TYPE_NAMES = "IJLTSZO";		//in the order of TetrisBlock.I_BLOCK, ...
+	private final static String STATE_NAMES = "0R2L";			//guideline orientations, clockwise
+	private final static int NO_FLOOR_KICK = Integer.MAX_VALUE;
+	private final static int[] NO_KICK = {0, 0};
+	//the bricks of state 0 of each type, numbered as in
+	//TetrisBlock.TETRIS_BLOCK_POSITIONS. O looks the same in every state
+	private final static int[][] SPAWN_SHAPES = {
+			{4, 5, 6, 7},
+			{0, 4, 5, 6},
+			{2, 4, 5, 6},
+			{1, 4, 5, 6},
+			{1, 2, 4, 5},
+			{0, 1, 5, 6},
+			{0, 1, 4, 5}
+	};
+	//the orientation of state 0, by type
+	private final static int[] SPAWN_ORIENTATIONS = findSpawnOrientations();
+
+	public final static String SRS_KICKS =
+			"# Super Rotation System\n"
+			+ "JLSTZ 0>R 0,0 -1,0 -1,1 0,-2 -1,-2\n"
+			+ "JLSTZ R>0 0,0 1,0 1,-1 0,2 1,2\n"
+			+ "JLSTZ R>2 0,0 1,0 1,-1 0,2 1,2\n"
+			+ "JLSTZ 2>R 0,0 -1,0 -1,1 0,-2 -1,-2\n"
+			+ "JLSTZ 2>L 0,0 1,0 1,1 0,-2 1,-2\n"
+			+ "JLSTZ L>2 0,0 -1,0 -1,-1 0,2 -1,2\n"
+			+ "JLSTZ L>0 0,0 -1,0 -1,-1 0,2 -1,2\n"
+			+ "JLSTZ 0>L 0,0 1,0 1,1 0,-2 1,-2\n"
+			+ "I 0>R 0,0 -2,0 1,0 -2,-1 1,2\n"
+			+ "I R>0 0,0 2,0 -1,0 2,1 -1,-2\n"
+			+ "I R>2 0,0 -1,0 2,0 -1,2 2,-1\n"
+			+ "I 2>R 0,0 1,0 -2,0 1,-2 -2,1\n"
+			+ "I 2>L 0,0 2,0 -1,0 2,1 -1,-2\n"
+			+ "I L>2 0,0 -2,0 1,0 -2,-1 1,2\n"
+			+ "I L>0 0,0 1,0 -2,0 1,-2 -2,1\n"
+			+ "I 0>L 0,0 -1,0 2,0 -1,2 2,-1\n";
+
+	public final static RotationSystem CLASSIC = createClassic();
+	public final static RotationSystem SRS = parse(SRS_KICKS);
+
+	//offsets as {dRow, dCol, dRow, dCol, ...}, by type, orientation before
+	//the spin, direction and reference column + 3
+	private final int[][][][][] kicks = new int[7][4][2][13][];
+	//the lowest reference row of each type and orientation, a block spun
+	//below it is lifted to it
+	private final int[][] floorRows = new int[7][4];
+
+	private RotationSystem() {}
+
+	/**
+	 * @return the orientation after a spin in the direction
+	 */
+	public static int spun(int orientation, int direction) {
+		return (orientation + (direction == CCW ? 1 : 3)) % 4;
+	}
+
+	/**
+	 * @return the offsets to try for the spin, as {dRow, dCol, dRow, dCol,
+	 * 			...}. they must not be changed.
+	 */
+	public int[] getKicks(int type, int orientation, int direction, int col) {
+		return kicks[type][orientation][direction][col + 3];
+	}
+
+	/**
+	 * @return the lowest reference row of the block after the spin, before
+	 * 			the kicks are tried, or Integer.MAX_VALUE if blocks are not
+	 * 			lifted from the floor
+	 */
+	public int getFloorRow(int type, int orientation) {
+		return floorRows[type][orientation];
+	}
+
+	private static RotationSystem createClassic() {
+		RotationSystem rs = new RotationSystem();
+		for(int t = 0; t < 7; t++) {
+			for(int o = 0; o < 4; o++) {
+				int maxRow = 0;
+				for(int b: TetrisBlock.TETRIS_BLOCK_POSITIONS[t][o])
+					maxRow = Math.max(maxRow, b / 4);
+				rs.floorRows[t][o] = 19 - maxRow;
+			}
+			for(int o = 0; o < 4; o++) {
+				for(int dir = CCW; dir <= CW; dir++) {
+					int to = spun(o, dir);
+					int minCol = 3;
+					int maxCol = 0;
+					for(int b: TetrisBlock.TETRIS_BLOCK_POSITIONS[t][to]) {
+						minCol = Math.min(minCol, b % 4);
+						maxCol = Math.max(maxCol, b % 4);
+					}
+					//the same two offsets are shared by every column that
+					//is shifted by the same distance
+					int[][] byShift = new int[13][];
+					for(int col = -3; col < 10; col++) {
+						int shift = Math.max(-minCol, Math.min(9 - maxCol, col)) - col;
+						if(byShift[shift + 6] == null)
+							byShift[shift + 6] = new int[]{0, shift, -1, shift};
+						rs.kicks[t][o][dir][col + 3] = byShift[shift + 6];
+					}
+				}
+			}
+		}
+		return rs;
+	}
+
+	/**
+	 * load a rotation system from a file, in the format described above
+	 */
+	public static RotationSystem load(File file) throws IOException {
+		Reader reader = new FileReader(file);
+		try {
+			return load(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * load a rotation system from text, in the format described above
+	 */
+	public static RotationSystem load(Reader reader) throws IOException {
+		RotationSystem rs = new RotationSystem();
+		for(int t = 0; t < 7; t++)
+			for(int o = 0; o < 4; o++) {
+				rs.floorRows[t][o] = NO_FLOOR_KICK;
+				for(int dir = CCW; dir <= CW; dir++)
+					for(int col = 0; col < 13; col++)
+						rs.kicks[t][o][dir][col] = NO_KICK;
+			}
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		int lineNumber = 0;
+		while((line = in.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] parts = line.split("\\s+");
+			if(parts.length < 3 || parts[1].length() != 3 || parts[1].charAt(1) != '>')
+				throw new IOException("line " + lineNumber + ": expected blocks, a spin such as 0>R and offsets");
+			int from = toState(parts[1].charAt(0), lineNumber);
+			int to = toState(parts[1].charAt(2), lineNumber);
+			int dir;
+			if(to == (from + 3) % 4)
+				dir = CCW;
+			else if(to == (from + 1) % 4)
+				dir = CW;
+			else
+				throw new IOException("line " + lineNumber + ": " + parts[1] + " is not a spin");
+			int[] offsets = new int[2 * (parts.length - 2)];
+			for(int k = 2; k < parts.length; k++) {
+				String[] xy = parts[k].split(",");
+				try {
+					if(xy.length != 2)
+						throw new NumberFormatException();
+					offsets[2*(k-2)] = -Integer.parseInt(xy[1].replace("+", ""));
+					offsets[2*(k-2) + 1] = Integer.parseInt(xy[0].replace("+", ""));
+				} catch(NumberFormatException e) {
+					throw new IOException("line " + lineNumber + ": bad offset " + parts[k]);
+				}
+			}
+			for(char c: parts[0].toCharArray()) {
+				int t = TYPE_NAMES.indexOf(c);
+				if(t < 0)
+					throw new IOException("line " + lineNumber + ": unknown block " + c);
+				for(int col = 0; col < 13; col++)
+					rs.kicks[t][toOrientation(t, from)][dir][col] = offsets;
+			}
+		}
+		return rs;
+	}
+
+	/**
+	 * @return the guideline state of a name of STATE_NAMES, 0 to 3
+	 */
+	private static int toState(char name, int lineNumber) throws IOException {
+		int state = STATE_NAMES.indexOf(name);
+		if(state < 0)
+			throw new IOException("line " + lineNumber + ": unknown orientation " + name);
+		return state;
+	}
+
+	/**
+	 * @return the orientation of the blocks of this game for a guideline 
+	 * 			state of the type
+	 */
+	public static int toOrientation(int type, int state) {
+		return (SPAWN_ORIENTATIONS[type] + 4 - state) % 4;
+	}
+
+	private static int[] findSpawnOrientations() {
+		int[] orientations = new int[7];
+		for(int t = 0; t < 7; t++) {
+			orientations[t] = -1;
+			for(int o = 3; o >= 0 && orientations[t] < 0; o--)
+				if(sameBricks(TetrisBlock.TETRIS_BLOCK_POSITIONS[t][o], SPAWN_SHAPES[t]))
+					orientations[t] = o;
+			if(orientations[t] < 0)
+				throw new IllegalStateException("no orientation of " + TYPE_NAMES.charAt(t) + " has the spawn shape");
+		}
+		return orientations;
+	}
+
+	private static boolean sameBricks(int[] a, int[] b) {
+		int[] x = a.clone();
+		int[] y = b.clone();
+		Arrays.sort(x);
+		Arrays.sort(y);
+		return Arrays.equals(x, y);
+	}
+
+	private static RotationSystem parse(String text) {
+		try {
+			return load(new StringReader(text));
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param name "classic", "srs", or a file to load
+	 */
+	public static RotationSystem forName(String name) throws IOException {
+		if(name.equalsIgnoreCase("classic"))
+			return CLASSIC;
+		if(name.equalsIgnoreCase("srs"))
+			return SRS;
+		return load(new File(name));
+	}
+
+	/**
+	 * check the rotation systems: every guideline state of every type must
+	 * have the bricks of SRS, and CLASSIC must spin blocks to the same place
+	 * as the rotation this game had before the kicks were tables (lift the
+	 * block out of the floor, shift it out of the walls, then try one row
+	 * higher), on random boards.
+	 *
+	 * usage: RotationSystem [spins]
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int spins = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int failures = 0;
+		for(int t = 0; t < 7; t++) {
+			//O is a 2 x 2 box, I a 4 x 4 box, the others a 3 x 3 box
+			int box = t == TetrisBlock.O_BLOCK ? 2 : t == TetrisBlock.I_BLOCK ? 4 : 3;
+			int[] shape = SPAWN_SHAPES[t];
+			for(int state = 0; state < 4; state++) {
+				int o = toOrientation(t, state);
+				if(!sameBricks(TetrisBlock.TETRIS_BLOCK_POSITIONS[t][o], shape)) {
+					System.out.printf("%c: state %c is orientation %d, which is not the shape of SRS%n",
+							TYPE_NAMES.charAt(t), STATE_NAMES.charAt(state), o);
+					failures++;
+				}
+				if(toOrientation(t, (state + 1) % 4) != spun(o, CW)) {
+					System.out.printf("%c: a clockwise spin from state %c does not reach state %c%n",
+							TYPE_NAMES.charAt(t), STATE_NAMES.charAt(state), STATE_NAMES.charAt((state + 1) % 4));
+					failures++;
+				}
+				//the next state is the shape turned clockwise within its box
+				int[] turned = new int[4];
+				for(int k = 0; k < 4; k++)
+					turned[k] = 4 * (shape[k] % 4) + box - 1 - shape[k] / 4;
+				shape = turned;
+			}
+		}
+		Random random = new Random(0);
+		TetrisGame game = new TetrisGame("Medium", false);
+		TetrisGame.GameCore core = game.getGameCore();
+		int[] lines = core.getLines();
+		int mismatches = 0;
+		for(int n = 0; n < spins; n++) {
+			if(n % 100 == 0) {
+				core.resetGame();
+				int top = random.nextInt(20);
+				for(int i = top; i < 20; i++)
+					for(int j = 0; j < 10; j++)
+						if(random.nextInt(3) > 0)
+							core.setBrick(i, j, PackedBoard.codeOf(random.nextInt(7)));
+			}
+			int t = random.nextInt(7);
+			int o = random.nextInt(4);
+			int[] ref = {random.nextInt(24) - 4, random.nextInt(13) - 3};
+			int dir = random.nextInt(2);
+			int[] expected = spinAsBefore(lines, t, o, ref[0], ref[1], dir);
+			TetrisBlock block = new TetrisBlock(game, t, o, ref.clone());
+			if(dir == CCW)
+				block.spinCCW();
+			else
+				block.spinCW();
+			if(block.getOrientation() != expected[0] || block.getReference()[0] != expected[1] 
+					|| block.getReference()[1] != expected[2])
+				mismatches++;
+		}
+		failures += mismatches;
+		System.out.printf("shapes of SRS checked for %s, %d classic spins, %d differ from the rotation before%n",
+				TYPE_NAMES, spins, mismatches);
+		if(failures > 0)
+			throw new IllegalStateException(failures + " checks failed");
+	}
+
+	/**
+	 * @return the orientation, row and column of a block after a spin, as
+	 * 			the rotation of this game worked before the kicks were tables
+	 */
+	private static int[] spinAsBefore(int[] lines, int type, int orientation, int row, int col, int direction) {
+		int to = spun(orientation, direction);
+		int[] bricks = TetrisBlock.TETRIS_BLOCK_POSITIONS[type][to];
+		int r = row;
+		int c = col;
+		while(isOutOfBottom(bricks, r))
+			r--;
+		int shift;
+		while((shift = outOfBoundIndex(bricks, c)) != 0)
+			c -= shift;
+		if(isOverlapped(lines, bricks, r, c)) {
+			r--;
+			if(isOverlapped(lines, bricks, r, c))
+				return new int[]{orientation, row, col};
+		}
+		return new int[]{to, r, c};
+	}
+
+	private static boolean isOutOfBottom(int[] bricks, int row) {
+		for(int b: bricks)
+			if(row + b / 4 >= 20)
+				return true;
+		return false;
+	}
+
+	private static int outOfBoundIndex(int[] bricks, int col) {
+		for(int b: bricks) {
+			if(col + b % 4 < 0)
+				return -1;
+			if(col + b % 4 >= 10)
+				return 1;
+		}
+		return 0;
+	}
+
+	private static boolean isOverlapped(int[] lines, int[] bricks, int row, int col) {
+		for(int b: bricks) {
+			int r = row + b / 4;
+			int c = col + b % 4;
+			if(r >= 0 && r < 20 && c >= 0 && c < 10 && (lines[r] & (1 << c)) != 0)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,211 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            SharedStateReader.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * reads the state that a game publishes with a SharedStateWriter, from
+ * another process or thread. the getters read the mapped file directly, so
+ * nothing is copied, but they are only consistent between a beginRead and a
+ * successful validate, as with the optimistic reads of a StampedLock:
+ *
+ *     long stamp = reader.beginRead();
+ *     int score = reader.getScore();
+ *     int cell = reader.getCell(19, 0);
+ *     if(!reader.validate(stamp))
+ *         ...the game wrote meanwhile, read again
+ *
+ * the reader never writes to the file, and never makes the game wait.
+ *
+ * @author Administrator
+ *
+ */
+public class SharedStateReader {
+
+	private final MappedByteBuffer buffer;
+
+	public SharedStateReader(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if(raf.length() < SharedStateWriter.SIZE)
+				throw new IOException(file + " is not a shared game state");
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SharedStateWriter.SIZE);
+		} finally {
+			raf.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if(buffer.getInt(0) != SharedStateWriter.MAGIC || buffer.getInt(4) != SharedStateWriter.LAYOUT_VERSION)
+			throw new IOException(file + " is not a shared game state of layout " + SharedStateWriter.LAYOUT_VERSION);
+	}
+
+	/**
+	 * start a read. waits while the game is writing, which only takes a few
+	 * hundred nanoseconds.
+	 *
+	 * @return the stamp to validate the read with
+	 */
+	public long beginRead() {
+		long stamp;
+		while(((stamp = (long) SharedStateWriter.LONGS.getAcquire(buffer, SharedStateWriter.VERSION)) & 1) != 0)
+			Thread.onSpinWait();
+		return stamp;
+	}
+
+	/**
+	 * @return whether the values read since beginRead belong to one state
+	 */
+	public boolean validate(long stamp) {
+		//the reads of the state must be done before the version is read
+		VarHandle.loadLoadFence();
+		return (long) SharedStateWriter.LONGS.getOpaque(buffer, SharedStateWriter.VERSION) == stamp;
+	}
+
+	/**
+	 * copy the whole board at once, which is faster than getCell for each
+	 * cell
+	 *
+	 * @param cells 200 codes, row by row, see getCell
+	 */
+	public void getBoard(byte[] cells) {
+		buffer.get(SharedStateWriter.BOARD, cells, 0, 200);
+	}
+
+	/**
+	 * @return the number of states written, which tells whether anything
+	 * 			has changed
+	 */
+	public long getCount() {
+		return buffer.getLong(SharedStateWriter.COUNT);
+	}
+
+	public long getTime() {
+		return buffer.getLong(SharedStateWriter.TIME);
+	}
+
+	/**
+	 * @return the status of the game, as TetrisGame.getGameStatus
+	 */
+	public String getStatus() {
+		switch(buffer.getInt(SharedStateWriter.STATUS)) {
+		case 1:
+			return "RUNNING";
+		case 2:
+			return "PAUSED";
+		case 3:
+			return "STOPPED";
+		default:
+			return "NEW";
+		}
+	}
+
+	public int getScore() {
+		return buffer.getInt(SharedStateWriter.SCORE);
+	}
+
+	public int getLevel() {
+		return buffer.getInt(SharedStateWriter.LEVEL);
+	}
+
+	public boolean hasBoom() {
+		return (buffer.getInt(SharedStateWriter.FLAGS) & SharedStateWriter.FLAG_BOOM) != 0;
+	}
+
+	public int getNextType() {
+		return buffer.getInt(SharedStateWriter.NEXT_TYPE);
+	}
+
+	public int getPieceType() {
+		return buffer.getInt(SharedStateWriter.PIECE_TYPE);
+	}
+
+	public int getPieceOrientation() {
+		return buffer.getInt(SharedStateWriter.PIECE_ORIENTATION);
+	}
+
+	public int getPieceRow() {
+		return buffer.getInt(SharedStateWriter.PIECE_ROW);
+	}
+
+	public int getPieceCol() {
+		return buffer.getInt(SharedStateWriter.PIECE_COL);
+	}
+
+	/**
+	 * @return the number of bricks of the dropping block within the board.
+	 * 			it is read again with the rest, so it can be wrong (but
+	 * 			never more than 4) if the read is not valid.
+	 */
+	public int getNumBricks() {
+		return Math.min(4, Math.max(0, buffer.getInt(SharedStateWriter.NUM_BRICKS)));
+	}
+
+	public int getBrickRow(int k) {
+		return buffer.get(SharedStateWriter.BRICKS + 2*k);
+	}
+
+	public int getBrickCol(int k) {
+		return buffer.get(SharedStateWriter.BRICKS + 2*k + 1);
+	}
+
+	/**
+	 * @return 0 if the cell is empty, 1 to 7 for the colors of the blocks, 8
+	 * 			for another color
+	 */
+	public int getCell(int row, int col) {
+		return buffer.get(SharedStateWriter.BOARD + 10*row + col);
+	}
+
+	/**
+	 * a stats collector in a process of its own: read the state once a
+	 * millisecond, and print the score and level of the game once a second,
+	 * with how many reads had to be done again.
+	 *
+	 * usage: SharedStateReader [file]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		SharedStateReader reader = new SharedStateReader(new File(args.length > 0 ? args[0] : "tetris.state"));
+		byte[] cells = new byte[200];
+		long reads = 0;
+		long retries = 0;
+		long lastPrint = System.nanoTime();
+		long lastCount = reader.getCount();
+		while(true) {
+			long stamp = reader.beginRead();
+			long count = reader.getCount();
+			String status = reader.getStatus();
+			int score = reader.getScore();
+			int level = reader.getLevel();
+			reader.getBoard(cells);
+			reads++;
+			if(!reader.validate(stamp)) {
+				retries++;
+				continue;
+			}
+			long now = System.nanoTime();
+			if(now - lastPrint >= 1000000000) {
+				int bricks = 0;
+				for(int c: cells)
+					if(c != 0)
+						bricks++;
+				System.out.printf("%s score %d level %d, %d bricks, %d states/s, %d reads (%d again)%n",
+						status, score, level, bricks, count - lastCount, reads, retries);
+				lastPrint = now;
+				lastCount = count;
+				reads = 0;
+				retries = 0;
+			}
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            SharedStateViewer.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/**
+ * shows a game that is played in another process, from the state it
+ * publishes with a SharedStateWriter, for example to put it in the overlay
+ * of a stream. the viewer looks at the file 60 times a second, and only
+ * repaints when the game has written a new state.
+ *
+ *     java TetrisMain share tetris.state
+ *     java SharedStateViewer tetris.state
+ *
+ * @author Administrator
+ *
+ */
+public class SharedStateViewer extends JPanel {
+
+	private static final long serialVersionUID = -2811830164297715306L;
+	private final SharedStateReader reader;
+	private final int[] cells = new int[200];
+	private final int[][] bricks = new int[4][2];
+	private int numBricks;
+	private int pieceType;
+	private int nextType, score, level;
+	private boolean hasBoom;
+	private long lastCount = -1;
+
+	public SharedStateViewer(SharedStateReader reader) {
+		this.reader = reader;
+		setPreferredSize(new Dimension(240, 300));
+	}
+
+	/**
+	 * read the state if the game has written a new one
+	 *
+	 * @return whether a new state has been read
+	 */
+	public boolean poll() {
+		if(reader.getCount() == lastCount)
+			return false;
+		long stamp;
+		do {
+			stamp = reader.beginRead();
+			lastCount = reader.getCount();
+			pieceType = reader.getPieceType();
+			nextType = reader.getNextType();
+			score = reader.getScore();
+			level = reader.getLevel();
+			hasBoom = reader.hasBoom();
+			numBricks = reader.getNumBricks();
+			for(int k = 0; k < numBricks; k++) {
+				bricks[k][0] = reader.getBrickRow(k);
+				bricks[k][1] = reader.getBrickCol(k);
+			}
+			for(int i = 0; i < 20; i++)
+				for(int j = 0; j < 10; j++)
+					cells[10*i + j] = reader.getCell(i, j);
+		} while(!reader.validate(stamp));
+		return true;
+	}
+
+	public void paintComponent(Graphics g) {
+		g.setColor(Color.darkGray);
+		g.fillRect(0, 0, 150, 300);
+		for(int i = 0; i < 20; i++)
+			for(int j = 0; j < 10; j++)
+				if(cells[10*i + j] != 0)
+					GamePainter.drawBrick(15*j, 15*i, colorOf(cells[10*i + j]), g);
+		if(pieceType >= 0)
+			for(int k = 0; k < numBricks; k++)
+				GamePainter.drawBrick(15*bricks[k][1], 15*bricks[k][0], TetrisBlock.TETRIS_COLORS[pieceType], g);
+		g.translate(150, 0);
+		GamePainter.paintSidePanel(g, nextType, score, level, hasBoom);
+		g.translate(-150, 0);
+	}
+
+	private static Color colorOf(int code) {
+		if(code <= TetrisBlock.TETRIS_COLORS.length)
+			return TetrisBlock.TETRIS_COLORS[code - 1];
+		return Color.gray;
+	}
+
+	/**
+	 * usage: SharedStateViewer [file]
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = new File(args.length > 0 ? args[0] : "tetris.state");
+		final SharedStateViewer viewer = new SharedStateViewer(new SharedStateReader(file));
+		JFrame window = new JFrame("Tetris - " + file.getName());
+		window.add(viewer);
+		window.setResizable(false);
+		window.pack();
+		window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		window.setLocationRelativeTo(null);
+		window.setVisible(true);
+		new Timer(16, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if(viewer.poll())
+					viewer.repaint();
+			}
+		}).start();
+	}
+}
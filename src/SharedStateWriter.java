@@ -0,0 +1,237 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            SharedStateWriter.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * publishes the state of a game after every step into a memory mapped file,
+ * so that other processes (an overlay for a stream, a stats collector, a
+ * bot) can read it with no socket and no copy, see SharedStateReader.
+ *
+ * the file is small and has a fixed layout, all numbers little endian:
+ *
+ *     0  int   magic, "TTRS"
+ *     4  int   layout version, 1
+ *     8  long  version of the state, odd while it is being written
+ *    16  long  number of states written
+ *    24  long  time of the step, as given to TetrisGame.step
+ *    32  int   status: 0 new, 1 running, 2 paused, 3 stopped
+ *    36  int   score
+ *    40  int   level
+ *    44  int   flags: bit 0 if the player has a boom
+ *    48  int   type of the next block, -1 if none
+ *    52  int   type of the dropping block
+ *    56  int   orientation of the dropping block
+ *    60  int   row of the dropping block
+ *    64  int   column of the dropping block
+ *    68  int   number of bricks of the dropping block within the board
+ *    72  4 x (byte row, byte column) of those bricks
+ *    80  20 x 10 bytes, the board row by row: 0 if empty, 1 to 7 for the
+ *        colors of the blocks (TetrisBlock.TETRIS_COLORS), 8 for any other
+ *   280  end
+ *
+ * the version works as a seqlock. the writer makes it odd, writes the state
+ * and makes it even again; a reader reads the version, the state and the
+ * version again, and keeps what it read only if both versions are the same
+ * and even. the writer never waits for the readers, and a slow reader only
+ * has to read again.
+ *
+ * the pages of the file are touched when it is created, and the file is
+ * never forced to the disk, so a write is only a few hundred stores to
+ * memory, on the thread that steps the game.
+ *
+ * @author Administrator
+ *
+ */
+public class SharedStateWriter {
+
+	public final static int MAGIC = 0x53525454;			//"TTRS" in little endian
+	public final static int LAYOUT_VERSION = 1;
+	public final static int VERSION = 8;
+	public final static int COUNT = 16;
+	public final static int TIME = 24;
+	public final static int STATUS = 32;
+	public final static int SCORE = 36;
+	public final static int LEVEL = 40;
+	public final static int FLAGS = 44;
+	public final static int NEXT_TYPE = 48;
+	public final static int PIECE_TYPE = 52;
+	public final static int PIECE_ORIENTATION = 56;
+	public final static int PIECE_ROW = 60;
+	public final static int PIECE_COL = 64;
+	public final static int NUM_BRICKS = 68;
+	public final static int BRICKS = 72;
+	public final static int BOARD = 80;
+	public final static int SIZE = 280;
+	public final static int FLAG_BOOM = 1;
+	public final static int OTHER_COLOR = 8;
+	//atomic access to the version, the buffer is page aligned so it is aligned
+	final static VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private final MappedByteBuffer buffer;
+	private final byte[] board = new byte[200];		//the board is put in the file at once
+	private long version;
+	private long count;
+
+	/**
+	 * create the file, or clear it if it exists
+	 */
+	public SharedStateWriter(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.setLength(SIZE);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+		} finally {
+			//the mapping stays valid after the file is closed
+			raf.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		//touch every byte now, so that the game thread never faults a page in
+		for(int i = 0; i < SIZE; i++)
+			buffer.put(i, (byte) 0);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, LAYOUT_VERSION);
+		buffer.putInt(NEXT_TYPE, -1);
+		buffer.putInt(PIECE_TYPE, -1);
+	}
+
+	/**
+	 * write the state of the game. called by the game after every step,
+	 * always from the same thread.
+	 *
+	 * @param now the time of the step
+	 */
+	public void write(TetrisGame game, long now) {
+		TetrisGame.GameCore core = game.getGameCore();
+		TetrisBlock curr = core.getCurrent();
+		TetrisBlock next = core.getNext();
+		List<int[]> bricks = curr.getBricksWithin();
+		long[] rows = core.getRows();
+
+		long v = version + 1;
+		LONGS.setOpaque(buffer, VERSION, v);
+		//the state must not be written before the version is odd
+		VarHandle.storeStoreFence();
+		buffer.putLong(COUNT, ++count);
+		buffer.putLong(TIME, now);
+		buffer.putInt(STATUS, statusCode(game.getGameStatus()));
+		buffer.putInt(SCORE, core.getScore());
+		buffer.putInt(LEVEL, core.getLevel());
+		buffer.putInt(FLAGS, core.hasBoom() ? FLAG_BOOM : 0);
+		buffer.putInt(NEXT_TYPE, next == null ? -1 : next.getType());
+		buffer.putInt(PIECE_TYPE, curr.getType());
+		buffer.putInt(PIECE_ORIENTATION, curr.getOrientation());
+		buffer.putInt(PIECE_ROW, curr.getReference()[0]);
+		buffer.putInt(PIECE_COL, curr.getReference()[1]);
+		buffer.putInt(NUM_BRICKS, bricks.size());
+		for(int k = 0; k < bricks.size(); k++) {
+			buffer.put(BRICKS + 2*k, (byte) bricks.get(k)[0]);
+			buffer.put(BRICKS + 2*k + 1, (byte) bricks.get(k)[1]);
+		}
+		for(int i = 0; i < 20; i++) {
+			//the codes of the map are the codes of the file
+			long row = rows[i];
+			for(int j = 0; j < 10; j++)
+				board[10*i + j] = (byte) PackedBoard.get(row, j);
+		}
+		buffer.put(BOARD, board);
+		//the version is even again only after the whole state is written
+		LONGS.setRelease(buffer, VERSION, v + 1);
+		version = v + 1;
+	}
+
+	/**
+	 * @return the code of the status in the file
+	 */
+	public static int statusCode(String status) {
+		switch(status) {
+		case "RUNNING":
+			return 1;
+		case "PAUSED":
+			return 2;
+		case "STOPPED":
+			return 3;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * play bot games faster than real time with the state published, while
+	 * a reader on another thread maps the same file and reads the board as
+	 * fast as it can, and report the cost of a write and of a read, in CPU
+	 * time of their threads, and how often a read has to be done again.
+	 *
+	 * usage: SharedStateWriter [file] [seconds]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		File file = new File(args.length > 0 ? args[0] : "tetris.state");
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+		final SharedStateWriter writer = new SharedStateWriter(file);
+		final SharedStateReader reader = new SharedStateReader(file);
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final long[] reads = new long[3];		//reads, reads done again, and CPU time
+		final AtomicBoolean isDone = new AtomicBoolean();
+		Thread readThread = new Thread("reader") {
+			public void run() {
+				byte[] board = new byte[200];
+				long start = threads.getCurrentThreadCpuTime();
+				while(!isDone.get()) {
+					long stamp = reader.beginRead();
+					reader.getBoard(board);
+					reads[0]++;
+					if(!reader.validate(stamp))
+						reads[1]++;
+				}
+				reads[2] = threads.getCurrentThreadCpuTime() - start;
+			}
+		};
+		readThread.setDaemon(true);
+		readThread.start();
+
+		long end = System.nanoTime() + (long) (seconds * 1e9);
+		long writes = 0;
+		long writeNanos = 0;
+		int games = 0;
+		TetrisGame game = null;
+		long now = 0;
+		while(System.nanoTime() < end) {
+			if(game == null || !game.getGameStatus().equals("RUNNING")) {
+				game = new TetrisGame("Medium", false);
+				game.setSeed(games++);
+				game.setBot(new TetrisAI());
+				game.start();
+				game.getGameCore().setNext();
+			}
+			now += 4000000;
+			game.step(now);
+			long start = threads.getCurrentThreadCpuTime();
+			for(int k = 0; k < 100; k++)
+				writer.write(game, now);
+			writeNanos += threads.getCurrentThreadCpuTime() - start;
+			writes += 100;
+		}
+		isDone.set(true);
+		readThread.join();
+		System.out.printf("%d writes in %d games: %.0f ns per write%n", writes, games, (double) writeNanos / writes);
+		System.out.printf("%d reads of the board: %.0f ns per read, %.3f%% read again%n", reads[0],
+				(double) reads[2] / reads[0], 100.0 * reads[1] / reads[0]);
+	}
+}
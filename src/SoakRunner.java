@@ -0,0 +1,335 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            SoakRunner.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * plays bot games faster than real time for a long time, and checks that
+ * the games do not allocate or keep more memory than they should. kiosks
+ * run the game for days, so a leak of a few bytes per game only shows up
+ * after many thousands of games.
+ *
+ * the games run without a window, but through the same rules as a game on
+ * screen: a GameScheduler steps them, so the gravity and garbage timers fire
+ * as usual, and each frame is painted into an offscreen image at the
+ * render rate. a game that ends is renewed and started again, as a player
+ * would do, with the speed of its difficulty. the games have no music, so
+ * the sequencer that a game with a window opens when it is renewed is not
+ * soaked here.
+ *
+ * every report interval the runner prints the bytes allocated per tick by
+ * its thread, the number of garbage collections and their pauses, the heap
+ * kept after the last collection and how much it has grown since the end of
+ * the warm up, and percentiles of the time taken by a tick. the run fails,
+ * with exit code 1, when the mean allocation per tick of an interval is over
+ * its budget, or when the growth of the heap kept after a full collection is
+ * over its budget.
+ *
+ * usage: SoakRunner [minutes] [games] [bytes per tick] [growth MB] [report seconds]
+ *
+ * @author Administrator
+ *
+ */
+public class SoakRunner {
+
+	private final static int TICK_RATE = 240;
+	private final static int RENDER_RATE = 60;
+	private final static long WARM_UP = 30000000000L;			//30 seconds
+	//tick times are counted in buckets of 1 us, up to 100 ms
+	private final static int NUM_BUCKETS = 100001;
+
+	private final int numGames;
+	private final long allocationBudget;		//bytes per tick
+	private final long growthBudget;			//bytes
+	private final long reportInterval;
+	private final GameScheduler scheduler;
+	private final GamePainter[] painters;
+	private final BufferedImage canvas = new BufferedImage(ReplayExporter.WIDTH, ReplayExporter.HEIGHT,
+			BufferedImage.TYPE_INT_RGB);
+	private final com.sun.management.ThreadMXBean threads;
+	private final long[] tickTimes = new long[NUM_BUCKETS];
+	private long maxTickTime;
+	private long numTicks;
+	private long gamesPlayed;
+	private long nextSeed;
+	//collections seen by the notification listener, which runs on another thread
+	private final AtomicLong maxPause = new AtomicLong();
+	private long baseline = -1;
+	private String failure;
+
+	/**
+	 * @param numGames the number of games played at the same time
+	 * @param allocationBudget the bytes a tick may allocate on average
+	 * @param growthBudget the bytes the heap kept after a collection may grow
+	 * @param reportSeconds the seconds between two reports
+	 */
+	public SoakRunner(int numGames, long allocationBudget, long growthBudget, int reportSeconds) {
+		this.numGames = numGames;
+		this.allocationBudget = allocationBudget;
+		this.growthBudget = growthBudget;
+		reportInterval = reportSeconds * 1000000000L;
+		scheduler = new GameScheduler(TICK_RATE, RENDER_RATE, null);
+		painters = new GamePainter[numGames];
+		for(int k = 0; k < numGames; k++) {
+			TetrisGame game = new TetrisGame("Medium", false);
+			game.getGameCore().setPublishesFrames(true);
+			game.setBot(new TetrisAI());
+			scheduler.addGame(game);
+			painters[k] = new GamePainter();
+			restart(game);
+		}
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			threads.setThreadAllocatedMemoryEnabled(true);
+		} else
+			threads = null;
+		listenToCollections();
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+		int games = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		long bytesPerTick = args.length > 2 ? Long.parseLong(args[2]) : 16384;
+		long growthMB = args.length > 3 ? Long.parseLong(args[3]) : 16;
+		int reportSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+		SoakRunner runner = new SoakRunner(games, bytesPerTick, growthMB << 20, reportSeconds);
+		boolean hasPassed = runner.run((long) (minutes * 60e9));
+		System.exit(hasPassed ? 0 : 1);
+	}
+
+	/**
+	 * tick the games as fast as possible for the given wall clock time
+	 *
+	 * @return whether the run stayed within the budgets
+	 */
+	public boolean run(long nanos) {
+		long start = System.nanoTime();
+		long end = start + nanos;
+		long warmedUp = start + Math.min(WARM_UP, nanos / 10);
+		long lastRender = 0;
+		long renderInterval = 1000000000L / RENDER_RATE;
+		long intervalStart = start;
+		long allocatedAtStart = allocatedBytes();
+		long ticksAtStart = 0;
+		long[] gcAtStart = collections();
+		System.out.printf("soak: %d games, budgets %d bytes per tick and %d MB of heap growth%n",
+				numGames, allocationBudget, growthBudget >> 20);
+		while(failure == null) {
+			long tickStart = System.nanoTime();
+			if(tickStart - end >= 0)
+				break;
+			scheduler.tick();
+			List<TetrisGame> games = scheduler.getGames();
+			for(int k = 0; k < numGames; k++) {
+				TetrisGame game = games.get(k);
+				if(!game.getGameStatus().equals("RUNNING"))
+					restart(game);
+			}
+			if(scheduler.getGameTime() - lastRender >= renderInterval) {
+				render();
+				lastRender = scheduler.getGameTime();
+			}
+			recordTick(System.nanoTime() - tickStart);
+
+			long now = System.nanoTime();
+			if(baseline < 0 && now - warmedUp >= 0) {
+				baseline = retainedAfterFullCollection();
+				System.out.printf("warmed up after %d ticks, heap kept %.1f MB%n", numTicks, baseline / 1048576.0);
+				intervalStart = now;
+				allocatedAtStart = allocatedBytes();
+				ticksAtStart = numTicks;
+				gcAtStart = collections();
+				clearTickTimes();
+			} else if(baseline >= 0 && (now - intervalStart >= reportInterval || now - end >= 0)) {
+				long allocated = allocatedBytes() - allocatedAtStart;
+				long[] gc = collections();
+				report(now - start, numTicks - ticksAtStart, allocated, gc[0] - gcAtStart[0],
+						gc[1] - gcAtStart[1]);
+				intervalStart = System.nanoTime();
+				allocatedAtStart = allocatedBytes();
+				ticksAtStart = numTicks;
+				gcAtStart = collections();
+				maxPause.set(0);
+				clearTickTimes();
+			}
+		}
+		if(failure == null && baseline >= 0) {
+			long growth = retainedAfterFullCollection() - baseline;
+			System.out.printf("heap growth at the end: %.2f MB%n", growth / 1048576.0);
+			if(growth > growthBudget)
+				failure = String.format("heap kept grew by %.2f MB, budget %d MB", growth / 1048576.0,
+						growthBudget >> 20);
+		}
+		System.out.printf("%d ticks, %d games played in %.1f minutes%n", numTicks, gamesPlayed,
+				(System.nanoTime() - start) / 60e9);
+		if(failure != null) {
+			System.out.println("FAILED: " + failure);
+			return false;
+		}
+		System.out.println("PASSED");
+		return true;
+	}
+
+	/**
+	 * renew a game with the next seed and start it again
+	 */
+	private void restart(TetrisGame game) {
+		if(!game.getGameStatus().equals("NEW"))
+			gamesPlayed++;
+		game.setSeed(nextSeed++);
+		game.start();
+		game.getGameCore().setNext();
+	}
+
+	/**
+	 * paint the latest frame of every game, as the window would
+	 */
+	private void render() {
+		List<TetrisGame> games = scheduler.getGames();
+		Graphics g = canvas.getGraphics();
+		for(int k = 0; k < numGames; k++) {
+			GameFrame frame = games.get(k).getGameCore().getFrame();
+			if(frame != null)
+				ReplayExporter.paintFrame(g, frame, painters[k]);
+		}
+		g.dispose();
+	}
+
+	private void report(long elapsed, long ticks, long allocated, long gcCount, long gcMillis) {
+		long retained = retainedAfterLastCollection();
+		long perTick = ticks == 0 || allocated < 0 ? -1 : allocated / ticks;
+		System.out.printf("%6.1f min: %d ticks, %d bytes/tick, %d GCs (%d ms, max pause %d ms), "
+				+ "heap kept %.1f MB (%+.2f MB), tick p50 %s p99 %s p99.9 %s max %s, %d games%n",
+				elapsed / 60e9, ticks, perTick, gcCount, gcMillis, maxPause.get(),
+				retained / 1048576.0, (retained - baseline) / 1048576.0,
+				percentile(0.5), percentile(0.99), percentile(0.999), micros(maxTickTime), gamesPlayed);
+		if(perTick > allocationBudget)
+			failure = "allocated " + perTick + " bytes per tick, budget " + allocationBudget;
+		else if(retained - baseline > growthBudget) {
+			//the heap kept after the last collection may still hold garbage
+			//of the old generation, so make sure with a full collection
+			long growth = retainedAfterFullCollection() - baseline;
+			if(growth > growthBudget)
+				failure = String.format("heap kept grew by %.2f MB, budget %d MB", growth / 1048576.0,
+						growthBudget >> 20);
+		}
+	}
+
+	private void recordTick(long nanos) {
+		tickTimes[(int) Math.min(nanos / 1000, NUM_BUCKETS - 1)]++;
+		if(nanos > maxTickTime)
+			maxTickTime = nanos;
+		numTicks++;
+	}
+
+	private void clearTickTimes() {
+		for(int k = 0; k < NUM_BUCKETS; k++)
+			tickTimes[k] = 0;
+		maxTickTime = 0;
+	}
+
+	/**
+	 * @return the tick time under which the fraction of the ticks of the
+	 * 			interval are
+	 */
+	private String percentile(double fraction) {
+		long total = 0;
+		for(long n: tickTimes)
+			total += n;
+		long wanted = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for(int k = 0; k < NUM_BUCKETS; k++) {
+			seen += tickTimes[k];
+			if(seen >= wanted && seen > 0)
+				return k == NUM_BUCKETS - 1 ? ">100ms" : (k + 1) + "us";
+		}
+		return "-";
+	}
+
+	private static String micros(long nanos) {
+		return nanos / 1000 + "us";
+	}
+
+	/**
+	 * @return the bytes allocated by this thread so far, or -1 if the JVM
+	 * 			does not count them
+	 */
+	private long allocatedBytes() {
+		return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @return the number of collections and their total time in ms
+	 */
+	private static long[] collections() {
+		long[] total = new long[2];
+		for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			total[0] += Math.max(0, gc.getCollectionCount());
+			total[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	/**
+	 * @return the heap used right after the last collection of each pool
+	 */
+	private static long retainedAfterLastCollection() {
+		long used = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if(pool.getType() == MemoryType.HEAP && usage != null)
+				used += usage.getUsed();
+		}
+		return used;
+	}
+
+	private static long retainedAfterFullCollection() {
+		System.gc();
+		System.gc();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		return heap.getUsed();
+	}
+
+	/**
+	 * keep the longest pause of each interval, from the notifications the
+	 * collectors send after each collection
+	 */
+	private void listenToCollections() {
+		NotificationListener listener = new NotificationListener() {
+			public void handleNotification(Notification n, Object handback) {
+				if(!n.getType().equals("com.sun.management.gc.notification"))
+					return;
+				CompositeData info = (CompositeData) n.getUserData();
+				CompositeData gcInfo = (CompositeData) info.get("gcInfo");
+				long duration = (Long) gcInfo.get("duration");
+				long max;
+				while(duration > (max = maxPause.get()) && !maxPause.compareAndSet(max, duration));
+			}
+		};
+		for(GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+			if(gc instanceof NotificationEmitter)
+				((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+	}
+}
@@ -0,0 +1,97 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            StartupTrace.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * times the phases of the start of the game, so that a slower start shows
+ * up. the phases run on several threads: the window is built on the event
+ * dispatch thread while the music, the sprites of the bricks and the tables
+ * of the blocks are loaded in the background. each phase is recorded with
+ * the time it started and ended, in milliseconds since main was called, and
+ * once every expected phase is recorded the trace is printed in one line:
+ *
+ *     startup (ms since main): tables 39-184 | sprites 39-321 | ui 40-420 | first paint 510 | midi 39-1566
+ *
+ * phases recorded again later (the music is loaded again when a game is
+ * renewed) are ignored. set the system property tetris.startupTrace to false
+ * to turn the trace off.
+ *
+ * @author Administrator
+ *
+ */
+public class StartupTrace {
+
+	private final static long START = System.nanoTime();
+	private final static List<String> expected = new ArrayList<String>();
+	private final static StringBuilder line = new StringBuilder();
+	private final static boolean isEnabled = !"false".equals(System.getProperty("tetris.startupTrace"));
+
+	/**
+	 * a pool for the work done in the background at the start. its threads
+	 * are daemons, so they never keep the game from exiting.
+	 */
+	public final static ExecutorService BACKGROUND = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "startup");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * start the trace, called first thing in main
+	 *
+	 * @param phases the phases that must be recorded before the trace is
+	 * 			printed
+	 */
+	public static synchronized void begin(String... phases) {
+		expected.clear();
+		for(String phase: phases)
+			expected.add(phase);
+		line.setLength(0);
+		line.append("startup (ms since main):");
+	}
+
+	/**
+	 * @return the time to pass to record as the start of a phase
+	 */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * record a phase that started at the given time and ends now
+	 */
+	public static void record(String phase, long startNanos) {
+		append(phase, (startNanos - START) / 1000000 + "-" + millisSince(START));
+	}
+
+	/**
+	 * record a moment, such as the first paint of the window
+	 */
+	public static void mark(String phase) {
+		append(phase, Long.toString(millisSince(START)));
+	}
+
+	private static synchronized void append(String phase, String millis) {
+		if(!expected.remove(phase))
+			return;
+		line.append(line.charAt(line.length() - 1) == ':' ? " " : " | ").append(phase).append(' ').append(millis);
+		if(expected.isEmpty() && isEnabled)
+			System.out.println(line);
+	}
+
+	private static long millisSince(long nanos) {
+		return (System.nanoTime() - nanos) / 1000000;
+	}
+}
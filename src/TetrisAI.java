@@ -0,0 +1,279 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            TetrisAI.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+
+/**
+ * a bot that plays a game. for every block, it tries each orientation and
+ * column, drops the block there on a copy of the map, and picks the place
+ * where the resulting map has the best score. the score is a weighted sum of
+ * some features of the map, such as the number of holes.
+ *
+ * the map is kept as one int per line, where bit j is set if column j has a
+ * brick, so that a whole line can be tested at once.
+ *
+ * @author Administrator
+ *
+ */
+public class TetrisAI {
+
+	//index of each feature in the features and weights arrays
+	public final static int HOLES = 0;
+	public final static int HEIGHT = 1;
+	public final static int BUMPINESS = 2;
+	public final static int WELLS = 3;
+	public final static int TRANSITIONS = 4;
+	public final static int NUM_FEATURES = 5;
+	public final static String[] FEATURE_NAMES =
+		{"holes", "height", "bumpiness", "wells", "transitions"};
+	//all features are bad, so all weights are negative
+	public final static double[] DEFAULT_WEIGHTS = {-0.9, -0.5, -0.2, -0.2, -0.3};
+	public final static int FULL_LINE = (1 << 10) - 1;
+
+	private final double[] weights;
+	private TetrisBlock lastPlayed;		//the block that has been placed already
+	private int trialCleared;			//lines cleared by the last tried place
+	private int bestCleared;			//lines cleared by the last found place
+	//buffers reused by every search, so a bot must only be used by one thread
+	private final int[] lines = new int[20];
+	private final int[] trial = new int[20];
+	private final int[] pieceLines = new int[4];
+	private final int[] heights = new int[10];
+	private final double[] features = new double[NUM_FEATURES];
+
+	public TetrisAI() {
+		this(DEFAULT_WEIGHTS);
+	}
+
+	public TetrisAI(double[] weights) {
+		if(weights.length != NUM_FEATURES)
+			throw new IllegalArgumentException("need " + NUM_FEATURES + " weights");
+		this.weights = weights.clone();
+	}
+
+	public double[] getWeights() {
+		return weights.clone();
+	}
+
+	/**
+	 * place the current block of the game if it has not been placed. the
+	 * block is moved and dropped at once; it is solidified by the next update
+	 * of the game as usual.
+	 */
+	public void play(TetrisGame game) {
+		TetrisBlock curr = game.getGameCore().getCurrent();
+		if(curr == lastPlayed)
+			return;
+		lastPlayed = curr;
+		int[] best = findPlacement(game.getGameCore().getLines(), curr.getType(), curr.getReference()[0]);
+		if(best == null)
+			return;
+		placing(game, curr, best[0], best[1]);
+		if(curr.moveTo(best[0], best[1]))
+			curr.drop();
+	}
+
+	/**
+	 * called by play after a place is chosen, before the block is moved. 
+	 * does nothing, but can be overridden to watch the bot, for example to
+	 * record training data.
+	 */
+	protected void placing(TetrisGame game, TetrisBlock block, int orientation, int col) {}
+
+	/**
+	 * @return the number of lines cleared by the place last found by
+	 * 			findPlacement
+	 */
+	public int getClearedLines() {
+		return bestCleared;
+	}
+
+	/**
+	 * find the best place for the block on the map, given as its packed
+	 * lines (see PackedBoard).
+	 *
+	 * @return the orientation and the reference column of the best place,
+	 * 			or null if the block fits nowhere
+	 */
+	public int[] findPlacement(long[] rows, TetrisBlock block) {
+		toLines(rows, lines);
+		return findPlacement(lines, block.getType(), block.getReference()[0]);
+	}
+
+	/**
+	 * same as the other findPlacement, but the map is given as one int per
+	 * line and the block as its type and row, for bots that do not run in
+	 * the game (see ReferenceBot).
+	 */
+	public int[] findPlacement(int[] map, int type, int row) {
+		if(map != lines)
+			System.arraycopy(map, 0, lines, 0, 20);
+		double bestScore = Double.NEGATIVE_INFINITY;
+		int[] best = null;
+		int orientations = type == TetrisBlock.O_BLOCK ? 1 : 4;
+		for(int o = 0; o < orientations; o++) {
+			for(int col = -3; col < 10; col++) {
+				double score = tryPlacement(type, o, row, col);
+				if(score > bestScore) {
+					bestScore = score;
+					best = new int[]{o, col};
+					bestCleared = trialCleared;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * drop the block from the row on a copy of the lines, and score the copy.
+	 *
+	 * @return the score, or negative infinity if the block does not fit
+	 */
+	private double tryPlacement(int type, int orientation, int row, int col) {
+		trialCleared = 0;
+		if(!toPieceLines(type, orientation, col, pieceLines))
+			return Double.NEGATIVE_INFINITY;
+		if(!fits(lines, pieceLines, row))
+			return Double.NEGATIVE_INFINITY;
+		while(fits(lines, pieceLines, row + 1))
+			row++;
+		System.arraycopy(lines, 0, trial, 0, 20);
+		for(int d = 0; d < 4; d++) {
+			if(pieceLines[d] == 0)
+				continue;
+			//part of the block is above the visible area, which is lost
+			if(row + d < 0)
+				return -1e9;
+			trial[row + d] |= pieceLines[d];
+		}
+		trialCleared = clearFullLines(trial);
+		getFeatures(trial, heights, features);
+		return score(features);
+	}
+
+	public double score(double[] features) {
+		double score = 0;
+		for(int i = 0; i < NUM_FEATURES; i++)
+			score += weights[i] * features[i];
+		return score;
+	}
+
+	/**
+	 * convert the packed lines of a map (see PackedBoard) into one int per
+	 * line
+	 */
+	public static void toLines(long[] rows, int[] lines) {
+		for(int i = 0; i < 20; i++)
+			lines[i] = PackedBoard.toBits(rows[i]);
+	}
+
+	/**
+	 * get the bricks of a block as one int per row of the block, with the
+	 * reference at the column.
+	 *
+	 * @return false if any brick is out of the left or right bound
+	 */
+	public static boolean toPieceLines(int type, int orientation, int col, int[] pieceLines) {
+		for(int d = 0; d < 4; d++)
+			pieceLines[d] = 0;
+		for(int b: TetrisBlock.TETRIS_BLOCK_POSITIONS[type][orientation]) {
+			int c = col + b % 4;
+			if(c < 0 || c >= 10)
+				return false;
+			pieceLines[b / 4] |= 1 << c;
+		}
+		return true;
+	}
+
+	/**
+	 * same rules as the moves of TetrisBlock: bricks above the visible area
+	 * never overlap, and no brick can be below the bottom.
+	 */
+	public static boolean fits(int[] lines, int[] pieceLines, int row) {
+		for(int d = 0; d < 4; d++) {
+			if(pieceLines[d] == 0)
+				continue;
+			int r = row + d;
+			if(r >= 20)
+				return false;
+			if(r >= 0 && (lines[r] & pieceLines[d]) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * remove the full lines and shift the lines above down
+	 *
+	 * @return the number of cleared lines
+	 */
+	public static int clearFullLines(int[] lines) {
+		int cleared = 0;
+		for(int i = 19; i >= 0; i--) {
+			if(lines[i] == FULL_LINE)
+				cleared++;
+			else if(cleared > 0)
+				lines[i + cleared] = lines[i];
+		}
+		for(int i = 0; i < cleared; i++)
+			lines[i] = 0;
+		return cleared;
+	}
+
+	/**
+	 * compute the features of the lines. the walls and the floor count as
+	 * bricks for wells and transitions.
+	 *
+	 * @param heights receives the height of each column
+	 * @param features receives the features, indexed as HOLES, HEIGHT, ...
+	 */
+	public static void getFeatures(int[] lines, int[] heights, double[] features) {
+		int covered = 0;		//columns that have a brick above the current line
+		int holes = 0;
+		int transitions = 0;
+		for(int j = 0; j < 10; j++)
+			heights[j] = 0;
+		for(int i = 0; i < 20; i++) {
+			int line = lines[i];
+			holes += Integer.bitCount(covered & ~line & FULL_LINE);
+			int newColumns = line & ~covered;
+			while(newColumns != 0) {
+				int j = Integer.numberOfTrailingZeros(newColumns);
+				heights[j] = 20 - i;
+				newColumns &= newColumns - 1;
+			}
+			covered |= line;
+			if(line != 0) {
+				//walls are bit 0 and 11, the line is shifted into bits 1 to 10
+				int walled = (line << 1) | 1 | (1 << 11);
+				transitions += Integer.bitCount((walled ^ (walled >> 1)) & 0x7FF);
+			}
+			if(i < 19)
+				transitions += Integer.bitCount((line ^ lines[i + 1]) & covered);
+			else
+				transitions += Integer.bitCount(covered & ~line);
+		}
+		int height = 0;
+		int bumpiness = 0;
+		int wells = 0;
+		for(int j = 0; j < 10; j++) {
+			height += heights[j];
+			if(j < 9)
+				bumpiness += Math.abs(heights[j] - heights[j + 1]);
+			int left = j == 0 ? 20 : heights[j - 1];
+			int right = j == 9 ? 20 : heights[j + 1];
+			int depth = Math.min(left, right) - heights[j];
+			if(depth > 0)
+				wells += depth;
+		}
+		features[HOLES] = holes;
+		features[HEIGHT] = height;
+		features[BUMPINESS] = bumpiness;
+		features[WELLS] = wells;
+		features[TRANSITIONS] = transitions;
+	}
+}
@@ -75,6 +75,13 @@ public class TetrisBlock {
 			//orange
 			new Color(255, 64, 0) 
 		};
+	//for each type and orientation, the row within the block of the lowest
+	//brick of each of the 4 columns of the block, -1 if the column is empty
+	private final static int[][][] BOTTOM_PROFILES = createBottomProfiles();
+	//for each type, orientation and reference column + 3, the bricks of the
+	//4 rows of the block as one int per row, bit j for column j of the map.
+	//null if a brick is out of the left or right bound at the column
+	private final static int[][][][] PIECE_ROWS = createPieceRows();
 	private TetrisGame game;
 	//each block is positioned relative to a reference point. and to move a block, 
 	//we move the reference point
@@ -94,7 +101,7 @@ public class TetrisBlock {
 	
 	//if no index is given, a block is constructed with random shape, position and orientation
 	public TetrisBlock(TetrisGame game) {
-		this(game, (int) (Math.random()*7), (int) (Math.random()*4), null);
+		this(game, game.getRandom().nextInt(7), game.getRandom().nextInt(4), null);
 	}
 	
 	public TetrisBlock(TetrisGame game, int type, int orientation, int[] ref) {
@@ -121,7 +128,7 @@ public class TetrisBlock {
 			//shift the block according to the reference so that all of the
 			//block is in the visible area
 			reference[0] = -(lastRow + 1);
-			reference[1] = (int) (Math.random()*(10-lastCol+firstCol)-firstCol);
+			reference[1] = game.getRandom().nextInt(10-lastCol+firstCol)-firstCol;
 		} else
 			reference = ref;
 	}
@@ -139,6 +146,10 @@ public class TetrisBlock {
 			reference = ref;
 	}
 	
+	public int getOrientation() {
+		return orientation;
+	}
+	
 	/**
 	 * get the bricks of the block that are within the visible area and return 
 	 * them in a list. if the list is empty, usually it means game is over.
@@ -161,50 +172,40 @@ public class TetrisBlock {
 	}
 	
 	/**
-	 * spin the block counter-clockwise. if the block has parts outside the 
-	 * visible area, it is shifted until all of it is within visible area.
+	 * spin the block counter-clockwise. if the block is out of the visible
+	 * area or overlaps after the spin, it is kicked as the rotation system
+	 * of the game says, or not spun if no kick helps.
 	 */
 	public void spinCCW() {
-		orientation = (orientation + 1) % 4;
-		bricks = TETRIS_BLOCK_POSITIONS[type][orientation];
-		int oldRow = reference[0];
-		int oldCol = reference[1];
-		while(isOutOfBottom())
-			reference[0]--;
-		while(outOfBoundIndex() != 0)
-			reference[1] -= outOfBoundIndex();
-		if(isOverLapped()) {
-			reference[0]--;
-			if(isOverLapped()) {
-				reference[0] = oldRow;
-				reference[1] = oldCol;
-				orientation = (orientation + 3) % 4;
-				bricks = TETRIS_BLOCK_POSITIONS[type][orientation];
-			}
-		} 
+		spin(RotationSystem.CCW);
 	}
 	
 	/**
 	 * similar with the spinCCW
 	 */
 	public void spinCW() {
-		orientation = (orientation + 3) % 4;
-		bricks = TETRIS_BLOCK_POSITIONS[type][orientation];
-		int oldRow = reference[0];
-		int oldCol = reference[1];
-		while(isOutOfBottom())
-			reference[0]--;
-		while(outOfBoundIndex() != 0)
-			reference[1] -= outOfBoundIndex();
-		if(isOverLapped()) {
-			reference[0]--;
-			if(isOverLapped()) {
-				reference[0] = oldRow;
-				reference[1] = oldCol;
-				orientation = (orientation + 1) % 4;
-				bricks = TETRIS_BLOCK_POSITIONS[type][orientation];
+		spin(RotationSystem.CW);
+	}
+
+	/**
+	 * spin the block with the first kick of the rotation system that fits.
+	 * the kicks are looked up, so a spin costs one fit test per kick tried.
+	 */
+	private void spin(int direction) {
+		RotationSystem rotation = game.getRotationSystem();
+		int to = RotationSystem.spun(orientation, direction);
+		int row = Math.min(reference[0], rotation.getFloorRow(type, to));
+		int col = reference[1];
+		int[] kicks = rotation.getKicks(type, orientation, direction, col);
+		for(int k = 0; k < kicks.length; k += 2) {
+			if(fits(to, row + kicks[k], col + kicks[k+1])) {
+				orientation = to;
+				bricks = TETRIS_BLOCK_POSITIONS[type][to];
+				reference[0] = row + kicks[k];
+				reference[1] = col + kicks[k+1];
+				return;
 			}
-		} 
+		}
 	}
 
 	/**
@@ -212,18 +213,16 @@ public class TetrisBlock {
 	 * overlapped with solidified block, reference is reset.
 	 */
 	public void left() {
-		reference[1]--;
-		if(outOfBoundIndex() == -1 || isOverLapped())
-			reference[1]++;
+		if(fits(orientation, reference[0], reference[1] - 1))
+			reference[1]--;
 	}
 
 	/**
 	 * similar with left
 	 */
 	public void right() {
-		reference[1]++;
-		if(outOfBoundIndex() == 1 || isOverLapped())
-			reference[1]--;
+		if(fits(orientation, reference[0], reference[1] + 1))
+			reference[1]++;
 	}
 	
 	/**
@@ -233,78 +232,161 @@ public class TetrisBlock {
 	 * @return  whether the attempt is successful
 	 */
 	public boolean down() {
-		reference[0]++;
-		if(isOverLapped() || isOutOfBottom()) {
-			reference[0]--;
+		if(!fits(orientation, reference[0] + 1, reference[1]))
 			return false;
-		}
+		reference[0]++;
 		return true;
 	}
 	
 	/**
-	 * drop the block to the bottom by repeatedly calling down.
+	 * turn the block to the orientation and move its reference to the column
+	 * at once, without going through the positions in between. used by bots.
+	 * if the block would be out of bound or overlapped, nothing is changed.
+	 * 
+	 * @return whether the block has been moved
 	 */
-	public void drop() {
-		while(down());
+	public boolean moveTo(int orientation, int col) {
+		if(!fits(orientation, reference[0], col))
+			return false;
+		this.orientation = orientation;
+		bricks = TETRIS_BLOCK_POSITIONS[type][orientation];
+		reference[1] = col;
+		return true;
 	}
 	
 	/**
-	 * solidify the block by adding every brick of the block to the map of the game
+	 * drop the block to the bottom at once.
 	 */
-	public void solidify() {
-		for(int[] b: getBricksWithin())
-			game.getGameCore().getMap()[b[0]][b[1]] = color;
+	public void drop() {
+		reference[0] += getDropDistance();
 	}
-	
+
 	/**
-	 * return an index indicating whether the block is out of bound and which
-	 * bound is crossed if any.
+	 * get the number of rows the block can fall. if the block is above the
+	 * highest brick of each of its columns, the distance comes from the 
+	 * column tops of the game and the lowest brick of each column of the
+	 * block, without looking at the map. if the block is under an overhang,
+	 * the fall is simulated.
 	 * 
-	 * @return an index indicating whether the block is out of bound and which
-	 * 			bound is crossed if any.
+	 * @return the number of rows the block can fall
 	 */
-	private int outOfBoundIndex() {
-		for(int b: bricks) {
-			int dCol = b % 4;
-			//return -1 if the block is out of the left bound
-			if(reference[1] + dCol < 0)
-				return -1;
-			//return 1 if the block is out of the right bound
-			if(reference[1] + dCol >= 10)
-				return 1;
+	public int getDropDistance() {
+		TetrisGame.GameCore core = game.getGameCore();
+		int[] profile = BOTTOM_PROFILES[type][orientation];
+		int distance = 20;
+		for(int d = 0; d < 4; d++) {
+			if(profile[d] < 0)
+				continue;
+			int bottom = reference[0] + profile[d];
+			int top = core.getColumnTop(reference[1] + d);
+			if(bottom >= top)
+				return simulateDrop();
+			if(top - 1 - bottom < distance)
+				distance = top - 1 - bottom;
 		}
-		//return 0 if the block is within bounds
-		return 0;
+		return distance;
 	}
-	
+
+	/**
+	 * @return the number of rows the block can fall, found by moving it down
+	 * 			one row at a time. the block is put back afterwards.
+	 */
+	private int simulateDrop() {
+		int row = reference[0];
+		while(down());
+		int distance = reference[0] - row;
+		reference[0] = row;
+		return distance;
+	}
+
 	/**
-	 * help down method check whether the block can go down further
+	 * get the bricks of the ghost of the block, where the block would land
+	 * if it was dropped, that are within the visible area
 	 * 
-	 * @return whether the block can go down further
+	 * @return the bricks of the ghost within the visible area
 	 */
-	private boolean isOutOfBottom() {
+	public List<int[]> getGhostBricks() {
+		int row = reference[0] + getDropDistance();
+		List<int[]> ghost = new ArrayList<int[]>();
 		for(int b: bricks) {
-			int dRow = b / 4;
-			if(reference[0] + dRow >= 20)
-				return true;
+			if(row + b / 4 >= 0)
+				ghost.add(new int[]{row + b / 4, reference[1] + b % 4});
+		}
+		return ghost;
+	}
+
+	/**
+	 * build the tables of the blocks now, rather than when the first block
+	 * appears. they are built when the class is loaded, which calling any
+	 * method of the class does.
+	 */
+	public static void loadTables() {}
+
+	private static int[][][] createBottomProfiles() {
+		int[][][] profiles = new int[7][4][4];
+		for(int t = 0; t < 7; t++) {
+			for(int o = 0; o < 4; o++) {
+				int[] profile = profiles[t][o];
+				for(int d = 0; d < 4; d++)
+					profile[d] = -1;
+				for(int b: TETRIS_BLOCK_POSITIONS[t][o])
+					if(b / 4 > profile[b % 4])
+						profile[b % 4] = b / 4;
+			}
 		}
-		return false;
+		return profiles;
 	}
 	
 	/**
-	 * check whether any brick of the block overlaps with the solidified blocks
+	 * solidify the block by adding every brick of the block to the map of the game
+	 */
+	public void solidify() {
+		for(int[] b: getBricksWithin())
+			game.getGameCore().setBrick(b[0], b[1], PackedBoard.codeOf(type));
+	}
+	
+	/**
+	 * check whether the block would be within the bounds and the bottom,
+	 * and not overlap the solidified blocks, in the orientation at the
+	 * reference. bricks above the visible area never overlap. the rows of
+	 * the block are tested against the lines of the game as bitmasks.
 	 * 
-	 * @return whether any brick of the block overlaps with the solidified blocks
+	 * @return whether the block fits there
 	 */
-	private boolean isOverLapped() {
-		for(int b: bricks) {
-			int dRow = b / 4;
-			int dCol = b % 4;
-			if(reference[0] + dRow >= 0 && reference[0] + dRow < 20 && reference[1] + dCol >= 0 && reference[1] + dCol < 10)
-				if(game.getGameCore().getMap()[reference[0]+dRow][reference[1]+dCol] != null)
-					return true;
+	private boolean fits(int orientation, int row, int col) {
+		if(col < -3 || col >= 10)
+			return false;
+		int[] pieceRows = PIECE_ROWS[type][orientation][col + 3];
+		if(pieceRows == null)
+			return false;
+		int[] lines = game.getGameCore().getLines();
+		for(int d = 0; d < 4; d++) {
+			int r = row + d;
+			if(pieceRows[d] == 0 || r < 0)
+				continue;
+			if(r >= 20 || (lines[r] & pieceRows[d]) != 0)
+				return false;
 		}
-		return false;
+		return true;
+	}
+
+	private static int[][][][] createPieceRows() {
+		int[][][][] pieceRows = new int[7][4][13][];
+		for(int t = 0; t < 7; t++)
+			for(int o = 0; o < 4; o++)
+				for(int col = -3; col < 10; col++) {
+					int[] rows = new int[4];
+					for(int b: TETRIS_BLOCK_POSITIONS[t][o]) {
+						int c = col + b % 4;
+						if(c < 0 || c >= 10) {
+							rows = null;
+							break;
+						}
+						rows[b / 4] |= 1 << c;
+					}
+					pieceRows[t][o][col + 3] = rows;
+				}
+		return pieceRows;
 	}
 	
 }
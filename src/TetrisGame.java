@@ -16,11 +16,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiSystem;
@@ -28,6 +30,7 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -37,29 +40,102 @@ import javax.swing.JPanel;
 
 public class TetrisGame {
 
-	private final JFrame WINDOW = new JFrame();
+	private final JFrame WINDOW;
+	private final Random random = new Random();		//must be created before the game core
+	private final TimerWheel OWN_WHEEL = new TimerWheel();	//used unless the game shares a wheel
+	private final TimerWheel.Clock CLOCK = new TimerWheel.Clock(OWN_WHEEL);	//before the game core too
 	private final GameCore GAME_CORE = new GameCore();
-	private final GameMenu GAME_MENU = new GameMenu();
-	private final RightPanel RIGHT_PANEL = new RightPanel();
-	private String gameStatus;
+	private final GameMenu GAME_MENU;
+	private final RightPanel RIGHT_PANEL;
+	private final ActiveRenderer ACTIVE_VIEW;	//paints the board if active rendering is used
+	private final GameEventBus EVENTS;
+	private final KeyRepeater REPEATER = new KeyRepeater(this);
+	private final boolean hasWindow;
+	private volatile String gameStatus;
 	private double updateRate;
 	private int renderRate = 60;
 	private Thread gameLoop;
 	private String difficulty;
-	private boolean hasBoosted;
-	private Sequencer sequencer = null;
-	private boolean isUpdating;
+	private volatile Sequencer sequencer = null;	//null until the music is loaded
+	private final Object MUSIC_LOCK = new Object();	//held to start, stop or swap the sequencer
+	private volatile boolean hasExited;
+	private boolean hasClock;			//whether the clock of the timers runs
+	private boolean needsNewTimers;		//whether the timers must be set for a new game
+	private long timeOffset;			//the time given to step less the time of the own wheel
+	private boolean hasUpdated;			//whether the game has been updated since the last step
+	private final TimerWheel.Timer GRAVITY = new TimerWheel.Timer(CLOCK) {
+		public void expired() {
+			if(isTicking())
+				update();
+		}
+	};
+	private TetrisAI bot;				//plays the game if it is not null
+	private RotationSystem rotationSystem = RotationSystem.CLASSIC;
+	private SharedStateWriter sharedState;	//publishes the state to other processes if it is not null
+	private int queuedGarbage;			//lines sent by opponents, risen in the next step
+	private final static int HISTORY_SIZE = 2000;	//blocks that can be rewound in a game with a window
+	//key codes queued by the keys and the menu, made by the next step
+	private final ConcurrentLinkedQueue<Integer> COMMANDS = new ConcurrentLinkedQueue<Integer>();
+	private final static int PAUSE = -1;		//commands that are not keys
+	private final static int UNPAUSE = -2;
 
 	public TetrisGame(String difficulty) {
+		this(difficulty, true);
+	}
+
+	/**
+	 * @param difficulty Difficulty of the game
+	 * @param hasWindow if false, the game has no window, menu, side panel or
+	 * 			music, and no game loop of its own. such a game is painted by
+	 * 			another view (or not at all) and driven by calling step.
+	 */
+	public TetrisGame(String difficulty, boolean hasWindow) {
+		this(difficulty, hasWindow, false);
+	}
+
+	/**
+	 * a game with a window must be created on the event dispatch thread, like
+	 * any Swing component. its music is loaded in the background.
+	 * 
+	 * @param difficulty Difficulty of the game
+	 * @param hasWindow see the constructor above
+	 * @param isActiveRendering if true, the board is not painted by Swing but
+	 * 			by an ActiveRenderer on its own thread, from the frames that
+	 * 			the game publishes
+	 */
+	public TetrisGame(String difficulty, boolean hasWindow, boolean isActiveRendering) {
+		this.hasWindow = hasWindow;
+		EVENTS = new GameEventBus(hasWindow);
 		gameStatus = "NEW";
 		setDifficulty(difficulty);
-		hasBoosted = false;
 		GAME_CORE.setPreferredSize(new Dimension(150, 300));
+		EVENTS.addListener(GAME_CORE);
+		if(!hasWindow) {
+			WINDOW = null;
+			GAME_MENU = null;
+			RIGHT_PANEL = null;
+			ACTIVE_VIEW = null;
+			return;
+		}
+		//the music loads in the background while the window is built
+		renewSequencer();
+		GAME_CORE.setHistorySize(HISTORY_SIZE);
+		//the window only paints the frames the game publishes
+		GAME_CORE.setPublishesFrames(true);
+		WINDOW = new JFrame();
+		GAME_MENU = new GameMenu();
+		RIGHT_PANEL = new RightPanel();
 		RIGHT_PANEL.setPreferredSize(new Dimension(90, 250));
 
 		WINDOW.setLayout(new BorderLayout());
 		WINDOW.setJMenuBar(GAME_MENU);
-		WINDOW.add(GAME_CORE, BorderLayout.WEST);
+		if(isActiveRendering) {
+			ACTIVE_VIEW = new ActiveRenderer(this, 3, renderRate);
+			WINDOW.add(ACTIVE_VIEW, BorderLayout.WEST);
+		} else {
+			ACTIVE_VIEW = null;
+			WINDOW.add(GAME_CORE, BorderLayout.WEST);
+		}
 		WINDOW.add(RIGHT_PANEL, BorderLayout.EAST);
 		WINDOW.setResizable(false);
 		WINDOW.pack();
@@ -69,7 +145,9 @@ public class TetrisGame {
 		WINDOW.setTitle("Tetris");
 		WINDOW.setVisible(true);
 		WINDOW.addKeyListener(GAME_CORE);
-		renewSequencer();
+		EVENTS.addListener(RIGHT_PANEL);
+		if(ACTIVE_VIEW != null)
+			ACTIVE_VIEW.start();
 	}
 
 	public JFrame getWindow() {
@@ -84,6 +162,84 @@ public class TetrisGame {
 		return gameStatus;
 	}
 
+	public String getDifficulty() {
+		return difficulty;
+	}
+
+	/**
+	 * @return the random generator of every random choice in the game, such
+	 * 			as the type of the next block and the holes of garbage lines
+	 */
+	public Random getRandom() {
+		return random;
+	}
+
+	/**
+	 * seed the random generator and renew the game, so that the same seed
+	 * always gives the same series of blocks and garbage lines, for example
+	 * to compare bots on the same games.
+	 */
+	public void setSeed(long seed) {
+		random.setSeed(seed);
+		renew();
+	}
+
+	/**
+	 * let a bot play the game. the bot places each block as soon as it
+	 * appears. pass null to give the game back to the keyboard.
+	 */
+	public void setBot(TetrisAI bot) {
+		this.bot = bot;
+	}
+
+	public TetrisAI getBot() {
+		return bot;
+	}
+
+	/**
+	 * set how the blocks are kicked when they spin, RotationSystem.CLASSIC
+	 * by default
+	 */
+	public void setRotationSystem(RotationSystem rotationSystem) {
+		this.rotationSystem = rotationSystem;
+	}
+
+	public RotationSystem getRotationSystem() {
+		return rotationSystem;
+	}
+
+	/**
+	 * publish the state of the game after every step into a memory mapped
+	 * file, for other processes. pass null to stop.
+	 */
+	public void setSharedState(SharedStateWriter sharedState) {
+		this.sharedState = sharedState;
+	}
+
+	/**
+	 * rise lines of garbage at the next step, for example when an opponent
+	 * clears lines. must be called from the thread that steps the game.
+	 */
+	public void sendGarbage(int lines) {
+		queuedGarbage += lines;
+	}
+
+	/**
+	 * external consumers, such as stats or bots, can subscribe to the events
+	 * of the game here instead of polling it.
+	 */
+	public GameEventBus getEventBus() {
+		return EVENTS;
+	}
+
+	/**
+	 * record an event of the game. it is delivered when the game flushes the
+	 * bus at the end of the update.
+	 */
+	private void fireEvent(GameEvent.Type type, int value) {
+		EVENTS.post(new GameEvent(this, type, value));
+	}
+
 	/**
 	 * Setting the difficulty of the game by setting the update rate.
 	 * If difficulty is extreme, level will be set to 10 at beginning. 
@@ -111,86 +267,134 @@ public class TetrisGame {
 	}
 
 	/**
-	 * increase update rate when down key is pressed to boost
+	 * @return the time between two updates at the current level, in
+	 * 			nanoseconds
 	 */
-	public void boost() {
-		updateRate *= 8;
+	public long getUpdateInterval() {
+		return (long) (1000000000 / updateRate);
 	}
 
 	/**
-	 * decrease update to normal after down key is release
+	 * run the timers of the game on a wheel shared with other games. a
+	 * shared wheel is advanced by whoever steps the games, before they are
+	 * stepped; the own wheel of the game is advanced by step.
+	 *
+	 * @param wheel the shared wheel, or null to go back to the own wheel
+	 */
+	public void setTimerWheel(TimerWheel wheel) {
+		CLOCK.setWheel(wheel == null ? OWN_WHEEL : wheel);
+		hasClock = false;
+	}
+
+	/**
+	 * @return the repeater that moves the block while a key is held, whose
+	 * 			timings can be changed
 	 */
-	public void deboost() {
-		updateRate /= 8;
+	public KeyRepeater getKeyRepeater() {
+		return REPEATER;
 	}
 
 	/**
-	 * method for playing BGM in a loop
+	 * method for playing BGM in a loop. the music is loaded in the background,
+	 * since the MIDI system takes a few hundred milliseconds to open, and the
+	 * window should not wait for it. if the game is already running when the
+	 * music is loaded, the music starts at once.
 	 */
 	private void renewSequencer() {
+		final long start = StartupTrace.now();
+		StartupTrace.BACKGROUND.execute(new Runnable() {
+			public void run() {
+				Sequencer loaded = loadSequencer();
+				synchronized(MUSIC_LOCK) {
+					//close the sequencer of the last game, or every restart keeps another
+					//open sequencer and its synthesizer
+					if(sequencer != null && sequencer.isOpen())
+						sequencer.close();
+					sequencer = null;
+					if(hasExited) {
+						if(loaded != null)
+							loaded.close();
+						return;
+					}
+					sequencer = loaded;
+					if(loaded != null && gameStatus.equals("RUNNING"))
+						loaded.start();
+				}
+				StartupTrace.record("midi", start);
+			}
+		});
+	}
+
+	/**
+	 * @return an open sequencer that plays the theme in a loop, or null if
+	 * 			there is no MIDI
+	 */
+	private Sequencer loadSequencer() {
+		Sequencer loaded = null;
 		try {
-			sequencer = MidiSystem.getSequencer();
-			sequencer.open();
+			loaded = MidiSystem.getSequencer();
+			loaded.open();
 			BufferedInputStream midiStream = new BufferedInputStream(this.getClass().getResourceAsStream("/TetrisTheme.mid"));
-			Sequence supersequence = MidiSystem.getSequence(midiStream);
-			sequencer.setSequence(supersequence);
-			sequencer.setLoopStartPoint(7680);
-			sequencer.setLoopEndPoint(48000);
-			sequencer.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
+			Sequence supersequence;
+			try {
+				supersequence = MidiSystem.getSequence(midiStream);
+			} finally {
+				midiStream.close();
+			}
+			loaded.setSequence(supersequence);
+			loaded.setLoopStartPoint(7680);
+			loaded.setLoopEndPoint(48000);
+			loaded.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
+			return loaded;
 		} catch (FileNotFoundException e) {}
 		catch (MidiUnavailableException e) {}
 		catch (IOException e) {}
 		catch (InvalidMidiDataException e) {}
+		if(loaded != null && loaded.isOpen())
+			loaded.close();
+		return null;
 	}
 
 	/**
-	 * start the game by using a thread. When the run method is invoked, the
-	 * thread will get into a while loop. In the while loop, update rate specifies
-	 * the interval between the updates of game, and each time the game is updated
-	 * the game will also be rendered. If the game hasn't been render for a
-	 * certain interval, it will render itself. If the game is neither running
-	 * nor pausing, the loop ends.
+	 * start the game. a game with a window uses its own thread. When the run
+	 * method is invoked, the thread will get into a while loop. In the while
+	 * loop, the game is stepped, and each time the game is updated the game
+	 * will also be rendered. If the game hasn't been render for a certain
+	 * interval, it will render itself. If the game is neither running nor
+	 * pausing, the loop ends. with active rendering, the loop does not render
+	 * at all, the render thread paints the frames published by each step. a
+	 * game without a window is only marked as running, and will be stepped
+	 * by whoever embeds it.
 	 */
 	public void start() {
-		if(sequencer != null && sequencer.isOpen())
-			sequencer.start();
+		COMMANDS.clear();
+		hasClock = false;
+		needsNewTimers = true;
 		gameStatus = "RUNNING";
+		//after the status, so that music loaded meanwhile is started either here or by the loader
+		synchronized(MUSIC_LOCK) {
+			if(sequencer != null && sequencer.isOpen())
+				sequencer.start();
+		}
+		if(!hasWindow)
+			return;
 		gameLoop = new Thread() {
 			public void run() {
+				double lastRender = System.nanoTime();
 				while(gameStatus.equals("RUNNING") || gameStatus.equals("PAUSED")) {
-					double now = System.nanoTime();
-					double lastUpdate = now;
-					double lastRender = now;
-					double secondMark = now;
-					while(gameStatus.equals("RUNNING")) {
-						while(now - lastUpdate < (1000000000/updateRate)) {
-							if(!gameStatus.equals("RUNNING"))
-								break;
-							if(now - lastRender < (1000000000/renderRate)) {
-								GAME_CORE.repaint();
-								lastRender = now;
-							}
-							if(now - secondMark >= 1000000000) {
-								GAME_CORE.doEachSecond();
-								secondMark = now;
-							}
-							Thread.yield();
-							try {Thread.sleep(1);} catch(Exception e) {};
-							now = System.nanoTime();
-						}
-						while(now - lastUpdate > (1000000000/updateRate)) {
-							isUpdating = true;
-							GAME_CORE.updateGame();
-							isUpdating = false;
-							GAME_CORE.repaint();
-							lastUpdate = now;
-							lastRender = now;
-						}
-					}
-					while(gameStatus.equals("PAUSED")) {
-						Thread.yield();
-						try {Thread.sleep(1);} catch(Exception e) {};
+					long now = System.nanoTime();
+					boolean hasUpdated = step(now);
+					if(ACTIVE_VIEW != null) {
+						//the render thread paints on its own
+					} else if(hasUpdated) {
+						GAME_CORE.repaint();
+						lastRender = now;
+					} else if(gameStatus.equals("RUNNING") && now - lastRender >= (1000000000/renderRate)) {
+						GAME_CORE.repaint();
+						lastRender = now;
 					}
+					Thread.yield();
+					try {Thread.sleep(1);} catch(Exception e) {};
 				}
 			}
 		};
@@ -198,44 +402,200 @@ public class TetrisGame {
 
 	}
 
+	/**
+	 * advance the game to the given time. the moves of the held keys are made,
+	 * and the own wheel of the game is advanced, which fires the timers that
+	 * are due: the gravity that updates the game, the garbage and the boom.
+	 * the first step after a start or an unpause only sets the clock, so
+	 * that the time spent paused is not counted. a pause freezes the timers
+	 * in the step that makes it.
+	 * 
+	 * the spins, drops, holds, rewinds and pauses queued by the keys and the
+	 * menu are made first, so the game is only changed by the thread that
+	 * steps it, and the frame published at the end of the step is never
+	 * built while the game changes.
+	 * 
+	 * @param now the time of the game in nanoseconds. it does not have to be
+	 * 			the wall clock, so a simulation can run faster than real time.
+	 * @return whether the game has been updated
+	 */
+	public boolean step(long now) {
+		applyCommands();
+		if(!gameStatus.equals("RUNNING")) {
+			//a pause or a stop is shown as well
+			GAME_CORE.publishFrameIfChanged();
+			if(sharedState != null)
+				sharedState.write(this, now);
+			return false;
+		}
+		if(!hasClock) {
+			if(needsNewTimers) {
+				needsNewTimers = false;
+				CLOCK.cancelAll();
+				GRAVITY.schedule(getUpdateInterval());
+				GAME_CORE.startTimers();
+			}
+			CLOCK.resume();
+			timeOffset = now - OWN_WHEEL.getTime();
+			REPEATER.reset(now);
+			hasClock = true;
+		}
+		//nothing moves while a boom is shown
+		if(!GAME_CORE.isBooming()) {
+			if(queuedGarbage > 0) {
+				GAME_CORE.riseGarbage(queuedGarbage, true);
+				queuedGarbage = 0;
+			}
+			if(bot != null)
+				bot.play(this);
+			//a soft drop that reaches the floor locks the block at once
+			if(REPEATER.update(now))
+				update();
+		}
+		if(CLOCK.getWheel() == OWN_WHEEL)
+			OWN_WHEEL.advance(now - timeOffset);
+		GAME_CORE.publishFrameIfChanged();
+		EVENTS.flush();
+		if(sharedState != null)
+			sharedState.write(this, now);
+		boolean updated = hasUpdated;
+		hasUpdated = false;
+		return updated;
+	}
+
+	/**
+	 * update the game, and set the gravity to update it again after an
+	 * update interval. a boom sets the gravity again when it is over.
+	 */
+	private void update() {
+		GAME_CORE.updateGame();
+		hasUpdated = true;
+		if(isTicking() && !GAME_CORE.isBooming())
+			GRAVITY.schedule(getUpdateInterval());
+	}
+
+	/**
+	 * @return whether the timers of the game may fire. the timers of a
+	 * 			paused game are out of the wheel, and the timers of a game
+	 * 			that has ended are left in the wheel, and only cancelled by
+	 * 			the first step of the next game.
+	 */
+	private boolean isTicking() {
+		return hasClock && gameStatus.equals("RUNNING");
+	}
+
+	/**
+	 * pause the game in its next step, if it is running then
+	 */
 	public void pause() {
-		if(sequencer != null && sequencer.isRunning())
-			sequencer.stop();
-		gameStatus = "PAUSED";
-		System.out.println("Paused");
+		COMMANDS.add(PAUSE);
 	}
 
+	/**
+	 * go on with the game in its next step, if it is paused then
+	 */
 	public void unpause() {
-		if(sequencer != null && sequencer.isOpen())
-			sequencer.start();
+		COMMANDS.add(UNPAUSE);
+	}
+
+	/**
+	 * make the commands queued since the last step
+	 */
+	private void applyCommands() {
+		Integer command;
+		while((command = COMMANDS.poll()) != null) {
+			if(command == PAUSE) {
+				if(gameStatus.equals("RUNNING"))
+					pauseNow();
+			} else if(command == UNPAUSE) {
+				if(gameStatus.equals("PAUSED"))
+					unpauseNow();
+			} else
+				GAME_CORE.applyKey(command);
+		}
+	}
+
+	/**
+	 * pause the game, on the thread that steps it. the timers are taken out
+	 * of the wheel at once, so a wheel shared with other games does not fire
+	 * them in its next tick.
+	 */
+	private void pauseNow() {
+		synchronized(MUSIC_LOCK) {
+			if(sequencer != null && sequencer.isRunning())
+				sequencer.stop();
+		}
+		CLOCK.pause();
+		hasClock = false;
+		gameStatus = "PAUSED";
+		log("Paused");
+	}
+
+	private void unpauseNow() {
+		hasClock = false;
 		gameStatus = "RUNNING";
-		System.out.println("Unpaused");
+		synchronized(MUSIC_LOCK) {
+			if(sequencer != null && sequencer.isOpen())
+				sequencer.start();
+		}
+		log("Unpaused");
 	}
 
 	public void stop() {
-		if(sequencer != null && sequencer.isOpen())
-			sequencer.close();
-		System.out.println("Stopped");
+		synchronized(MUSIC_LOCK) {
+			if(sequencer != null && sequencer.isOpen())
+				sequencer.close();
+		}
+		log("Stopped");
 		gameStatus = "STOPPED";
 	}
 
 	/**
-	 * renew the game. turn the game to a status of first start.
+	 * renew the game. turn the game to a status of first start. a game with
+	 * a window waits for the last step of its loop first, and publishes the
+	 * new game itself, since it is not stepped again until it starts.
 	 */
 	public void renew() {
-		renewSequencer();
-		System.out.println("Renewed");
+		if(hasWindow) {
+			Thread loop = gameLoop;
+			if(loop != null && loop != Thread.currentThread()) {
+				try {loop.join();} catch (InterruptedException e) {}
+			}
+			renewSequencer();
+		}
+		log("Renewed");
 		gameStatus = "NEW";
+		queuedGarbage = 0;
+		COMMANDS.clear();
 		GAME_CORE.resetGame();
+		//the gravity and the level of the difficulty, not of the last game
+		setDifficulty(difficulty);
+		if(hasWindow)
+			GAME_CORE.publishFrameIfChanged();
 		GAME_CORE.repaint();
-		RIGHT_PANEL.repaint();
+		if(hasWindow)
+			RIGHT_PANEL.repaint();
+	}
+
+	/**
+	 * print the status of a game with a window. games without a window are
+	 * usually simulated by the thousand, so they are quiet.
+	 */
+	private void log(String message) {
+		if(hasWindow)
+			System.out.println(message);
 	}
 
 	public void exit() {
-		System.out.println("Exit");
+		hasExited = true;
+		log("Exit");
 		stop();
-		WINDOW.removeKeyListener(GAME_CORE);
-		WINDOW.dispose();
+		if(hasWindow) {
+			if(ACTIVE_VIEW != null)
+				ACTIVE_VIEW.stop();
+			WINDOW.removeKeyListener(GAME_CORE);
+			WINDOW.dispose();
+		}
 	}
 
 
@@ -254,6 +614,7 @@ public class TetrisGame {
 		private final JMenu M_GAME, M_DIFFICULTY, M_SCORE, M_ABOUT;
 		private final JMenuItem MI_RESTART, MI_EXIT, MI_PAUSE_UNPAUSE, MI_EASY, 
 		MI_MEDIUM, MI_HARD, MI_EXTREME, MI_SCOREBOARD, MI_CREDITS, MI_HELP;
+		private final JCheckBoxMenuItem MI_BOARD_STATS;
 		public GameMenu() {
 			M_GAME = new JMenu("Game");
 			M_DIFFICULTY = new JMenu("Difficulty");
@@ -262,6 +623,7 @@ public class TetrisGame {
 
 			MI_RESTART = new JMenuItem("Restart");
 			MI_PAUSE_UNPAUSE = new JMenuItem("Pause/Unpause");
+			MI_BOARD_STATS = new JCheckBoxMenuItem("Board Stats");
 			MI_EXIT = new JMenuItem("Exit");
 
 			MI_SCOREBOARD = new JMenuItem("Scoreboard");
@@ -280,6 +642,7 @@ public class TetrisGame {
 			add(M_ABOUT);
 			M_GAME.add(MI_RESTART);
 			M_GAME.add(MI_PAUSE_UNPAUSE);
+			M_GAME.add(MI_BOARD_STATS);
 			M_GAME.add(MI_EXIT);
 			M_DIFFICULTY.add(MI_HARD);
 			M_DIFFICULTY.add(MI_MEDIUM);
@@ -291,6 +654,7 @@ public class TetrisGame {
 
 			MI_RESTART.addActionListener(this);
 			MI_EXIT.addActionListener(this);
+			MI_BOARD_STATS.addActionListener(this);
 			MI_PAUSE_UNPAUSE.addActionListener(this);
 			MI_EASY.addActionListener(this);
 			MI_MEDIUM.addActionListener(this);
@@ -309,6 +673,9 @@ public class TetrisGame {
 			if(e.getSource().equals(MI_EXIT)) {
 				exit();
 			}
+			if(e.getSource().equals(MI_BOARD_STATS)) {
+				RIGHT_PANEL.setShowsFeatures(MI_BOARD_STATS.isSelected());
+			}
 			if(e.getSource().equals(MI_PAUSE_UNPAUSE)) {
 				if(gameStatus.equals("RUNNING"))
 					pause();
@@ -354,6 +721,7 @@ public class TetrisGame {
 								+ "Up/Z                ==>    spin the block counter-clockwise" + "\n" 
 								+ "X                      ==>    spin the block clockwise" + "\n"
 								+ "C                      ==>    hold the current block (can only use once for each trial)" + "\n"
+								+ "Backspace       ==>    take back the last block" + "\n"
 								+ "ESC                 ==>    exit", "Help", JOptionPane.INFORMATION_MESSAGE);
 			}
 			GAME_CORE.repaint();
@@ -369,7 +737,7 @@ public class TetrisGame {
 	 * @author Administrator
 	 *
 	 */
-	class GameCore extends JPanel implements KeyListener {
+	class GameCore extends JPanel implements KeyListener, GameListener {
 
 		/**
 		 * 
@@ -378,28 +746,199 @@ public class TetrisGame {
 		private boolean[] keys = new boolean[256];
 		private TetrisBlock curr;			//the type of the current block
 		private TetrisBlock next;			//the type of the next block
-		private Color[][] map;				//use a 2D array to represent the Tetris blocks
+		private final long[] rows = new long[20];			//the bricks of each line, packed as in PackedBoard
+		private final int[] columnTops = new int[10];		//row of the highest brick of each column, 20 if empty
+		private final int[] lines = new int[20];			//one bit for each brick of each line, bit j for column j
+		private BoardFeatures features = BoardFeatures.EMPTY;	//built from the lines after the board changes
+		private final PieceStats pieceStats = new PieceStats();
+		private GameHistory history;			//null if the game cannot be rewound
+		private boolean publishesFrames;		//whether a frame is published after every change
+		private boolean hasChanged;				//whether anything changed since the last frame
+		private volatile GameFrame frame;		//the last published frame
+		private long frameSequence;
 		private ArrayList<Integer> needClearLines;				
 					//sometimes more than one lines need to be cleared.
-		private boolean blocksHasUpdated;		//status variable to tell whether the dropping block has been "solidified"
-		private boolean hasResetBoost;			//status variable to tell the boost has been reset
-		private BufferedImage baseBlocks;		//store the "solidified" blocks as an image to save calculation
+		private GamePainter painter;			//paints the frames on the event dispatch thread, created when first painted
 		private int score;
 		private int[] bestScore;
 		private int level;
 		private int numClearedLines;			//the number of cleared lines in one drop. Used to calculate score
-		private int secondCounter;
 		private boolean hasBoom;				//if 4 lines are cleared in one time, a "boom" is granted
 		private int boomCounter;				//after 4 drops since a boom is granted, every block on the screen will be cleared, and with a bonus
 		private boolean hasHeld;				//player can hold once each drop. keep track whether hold has been used
 		private boolean hasChangedMusicMode;	//music will be changed into another mode after certain levels
+		private boolean hasPainted;				//whether the first paint has been traced
+		private boolean isBooming;				//whether a boom is being shown, the game stands still meanwhile
+		private int boomTop;					//the first line with bricks when the boom went off
+		private int boomRow, boomCol;			//where the boom looks for the next empty brick
+		private final static long BOOM_FILL_DELAY = 50000000;	//between two bricks filled by a boom
+		private final TimerWheel.Timer GARBAGE = new TimerWheel.Timer(CLOCK) {
+			public void expired() {
+				if(!isTicking() || level <= 5)
+					return;
+				riseGarbage(1, false);
+				scheduleGarbage();
+			}
+		};
+		private final TimerWheel.Timer BOOM_FILL = new TimerWheel.Timer(CLOCK) {
+			public void expired() {
+				if(!isTicking())
+					return;
+				if(fillBoomBrick())
+					schedule(BOOM_FILL_DELAY);
+				else
+					BOOM_CLEAR.schedule(getUpdateInterval());
+			}
+		};
+		private final TimerWheel.Timer BOOM_CLEAR = new TimerWheel.Timer(CLOCK) {
+			public void expired() {
+				if(!isTicking())
+					return;
+				clearBoom();
+				spawnNext();
+				hasUpdated = true;
+				GRAVITY.schedule(getUpdateInterval());
+			}
+		};
 
 		public GameCore() {
 			resetGame();
 		}
 
-		public Color[][] getMap() {
-			return map;
+		/**
+		 * @return the bricks of each line, packed as in PackedBoard. they must
+		 * 			not be changed directly; use setBrick.
+		 */
+		public long[] getRows() {
+			return rows;
+		}
+
+		/**
+		 * @return the color of a brick, null if it is empty
+		 */
+		public Color getColor(int row, int col) {
+			return PackedBoard.toColor(PackedBoard.get(rows[row], col));
+		}
+
+		/**
+		 * set a brick of the map
+		 * 
+		 * @param code the code of its color (see PackedBoard), 
+		 * 			PackedBoard.EMPTY to empty it
+		 */
+		public void setBrick(int row, int col, int code) {
+			rows[row] = PackedBoard.with(rows[row], col, code);
+			if(code != PackedBoard.EMPTY) {
+				lines[row] |= 1 << col;
+				if(row < columnTops[col])
+					columnTops[col] = row;
+			} else {
+				lines[row] &= ~(1 << col);
+				if(row == columnTops[col])
+					settleColumnTop(col, row);
+			}
+		}
+
+		/**
+		 * @return one int for each line of the map, bit j for column j, kept
+		 * 			up to date as the map changes. it must not be changed.
+		 */
+		public int[] getLines() {
+			return lines;
+		}
+
+		/**
+		 * @return the features of the board after the last lock, clear,
+		 * 			garbage rise, boom or rewind
+		 */
+		public BoardFeatures getFeatures() {
+			return features;
+		}
+
+		/**
+		 * @return the stats of the blocks placed in this game
+		 */
+		public PieceStats getPieceStats() {
+			return pieceStats;
+		}
+
+		private void updateFeatures() {
+			features = BoardFeatures.of(lines);
+		}
+
+		/**
+		 * @return the row of the highest brick in the column, 20 if the 
+		 * 			column is empty
+		 */
+		public int getColumnTop(int col) {
+			return columnTops[col];
+		}
+
+		/**
+		 * set the top of the column to the first brick from the row down.
+		 * the row must not be below the highest brick of the column.
+		 */
+		private void settleColumnTop(int col, int row) {
+			while(row < 20 && (lines[row] & (1 << col)) == 0)
+				row++;
+			columnTops[col] = row;
+		}
+
+		private void resetColumnTops() {
+			for(int j = 0; j < 10; j++)
+				settleColumnTop(j, 0);
+		}
+
+		/**
+		 * keep the states of the last blocks so that the game can be rewound.
+		 * 
+		 * @param size the number of blocks kept, 0 to turn the history off
+		 */
+		public void setHistorySize(int size) {
+			history = size > 0 ? new GameHistory(size) : null;
+		}
+
+		public GameHistory getHistory() {
+			return history;
+		}
+
+		/**
+		 * publish a frame after every change of the game, for renderers on
+		 * other threads. off by default, since a game that is never painted
+		 * does not need frames.
+		 */
+		public void setPublishesFrames(boolean publishesFrames) {
+			this.publishesFrames = publishesFrames;
+			hasChanged = true;
+			publishFrameIfChanged();
+		}
+
+		/**
+		 * @return the last published frame, or null if none is published
+		 */
+		public GameFrame getFrame() {
+			return frame;
+		}
+
+		/**
+		 * publish a frame of the current state, if frames are published and
+		 * anything has changed. the frame is built in full before the one
+		 * volatile write that publishes it, so a renderer sees either the
+		 * last frame or the new one, never a mix of both.
+		 * 
+		 * it must be called by the thread that changes the game, which is
+		 * the thread that steps it (the keys only queue commands for the
+		 * step), so the game never changes while a frame is built.
+		 */
+		public void publishFrameIfChanged() {
+			if(!publishesFrames)
+				return;
+			GameFrame last = frame;
+			if(!hasChanged && last != null && last.getStatus().equals(gameStatus))
+				return;
+			hasChanged = false;
+			frame = new GameFrame(rows, curr.getBricksWithin(), curr.getGhostBricks(), curr.getColor(), 
+					next == null ? -1 : next.getType(), score, level, hasBoom, gameStatus, features, frameSequence++);
 		}
 
 		public int getScore() {
@@ -410,6 +949,10 @@ public class TetrisGame {
 			return next;
 		}
 
+		public TetrisBlock getCurrent() {
+			return curr;
+		}
+
 		public int getLevel() {
 			return level;
 		}
@@ -419,8 +962,78 @@ public class TetrisGame {
 		}
 
 		public void setNext() {
+			hasChanged = true;
 			next = new TetrisBlock(TetrisGame.this);
-			RIGHT_PANEL.repaint();
+			saveSnapshot();
+			fireEvent(GameEvent.Type.PIECE_SPAWNED, next.getType());
+			EVENTS.flush();
+		}
+
+		/**
+		 * save the state of the game in the history
+		 */
+		private void saveSnapshot() {
+			if(history == null)
+				return;
+			GameHistory.Snapshot s = history.push();
+			System.arraycopy(rows, 0, s.rows, 0, 20);
+			s.currType = curr.getType();
+			s.currOrientation = curr.getOrientation();
+			s.currRow = curr.getReference()[0];
+			s.currCol = curr.getReference()[1];
+			s.nextType = next == null ? -1 : next.getType();
+			if(next != null) {
+				s.nextOrientation = next.getOrientation();
+				s.nextRow = next.getReference()[0];
+				s.nextCol = next.getReference()[1];
+			}
+			s.score = score;
+			s.level = level;
+			s.numClearedLines = numClearedLines;
+			s.boomCounter = boomCounter;
+			s.hasBoom = hasBoom;
+			s.hasHeld = hasHeld;
+			s.updateRate = updateRate;
+			s.numNeedClearLines = needClearLines.size();
+			for(int k = 0; k < needClearLines.size(); k++)
+				s.needClearLines[k] = needClearLines.get(k);
+		}
+
+		/**
+		 * take back the last block: the game goes back to the state it had
+		 * when the block before the current one appeared. if there is no
+		 * earlier state, the current block goes back to where it appeared.
+		 * 
+		 * @return whether the game has been rewound
+		 */
+		public boolean rewind() {
+			if(history == null || history.size() == 0)
+				return false;
+			if(history.size() > 1)
+				history.pop();
+			GameHistory.Snapshot s = history.peek();
+			hasChanged = true;
+			System.arraycopy(s.rows, 0, rows, 0, 20);
+			TetrisAI.toLines(rows, lines);
+			resetColumnTops();
+			updateFeatures();
+			curr = new TetrisBlock(TetrisGame.this, s.currType, s.currOrientation, new int[]{s.currRow, s.currCol});
+			if(s.nextType == -1)
+				next = null;
+			else
+				next = new TetrisBlock(TetrisGame.this, s.nextType, s.nextOrientation, new int[]{s.nextRow, s.nextCol});
+			score = s.score;
+			level = s.level;
+			numClearedLines = s.numClearedLines;
+			boomCounter = s.boomCounter;
+			hasBoom = s.hasBoom;
+			hasHeld = s.hasHeld;
+			updateRate = s.updateRate;
+			needClearLines.clear();
+			for(int k = 0; k < s.numNeedClearLines; k++)
+				needClearLines.add(s.needClearLines[k]);
+			fireEvent(GameEvent.Type.REWOUND, score);
+			return true;
 		}
 
 		public boolean hasBoom() {
@@ -428,62 +1041,61 @@ public class TetrisGame {
 		}
 
 		public void keyPressed(KeyEvent e) {
-			if(isUpdating) return;
-			
-			if(e.getKeyCode() > 255) return;
+			pressKey(e.getKeyCode());
+		}
+
+		/**
+		 * handle a pressed key. it is separated from keyPressed so that a 
+		 * view with several games (which maps the keys of each player) can
+		 * press the keys of this game.
+		 * 
+		 * @param keyCode the key code, as in KeyEvent
+		 */
+		public void pressKey(int keyCode) {
+			if(keyCode > 255) return;
+
+			//the keys that move the block are only recorded here, and the 
+			//moves are made by the key repeater in the next step. they are
+			//recorded even while the game updates, so no press is lost
+			if(KeyRepeater.isRepeatKey(keyCode)) {
+				if(!keys[keyCode]) {
+					keys[keyCode] = true;
+					REPEATER.pressed(keyCode);
+				}
+				return;
+			}
 
-			if(e.getKeyCode() == KeyEvent.VK_ESCAPE)
+			if(keyCode == KeyEvent.VK_ESCAPE)
 				exit();
 
-			if(gameStatus.equals("NEW") && e.getKeyCode() == KeyEvent.VK_ENTER) {
-				start();
+			//a new game is not stepped until it starts, so it is set up here
+			if(gameStatus.equals("NEW") && keyCode == KeyEvent.VK_ENTER) {
 				setNext();
+				start();
 			}
 
+			//the keys that change the block are queued, and made by the next
+			//step. a held key is only made once, except for the hold, which
+			//can only be used once per block anyway
 			if(gameStatus.equals("RUNNING")) {
-				switch(e.getKeyCode()) {
-				case KeyEvent.VK_LEFT:
-					curr.left();
-					break;
-				case KeyEvent.VK_RIGHT:
-					curr.right();
-					break;
-				case KeyEvent.VK_DOWN:
-					if(keys[KeyEvent.VK_DOWN]) {
-						if(!hasResetBoost && !hasBoosted) {
-							boost();
-							hasBoosted = true;
-						}
-					} else {
-						curr.down();
-						hasResetBoost = false;
-					}
-					break;
+				switch(keyCode) {
 				case KeyEvent.VK_UP:
-					if(!keys[KeyEvent.VK_UP])
-						curr.spinCCW();
-					break;
 				case KeyEvent.VK_Z:
-					if(!keys[KeyEvent.VK_Z])
-						curr.spinCCW();
-					break;
 				case KeyEvent.VK_X:
-					if(!keys[KeyEvent.VK_X])
-						curr.spinCW();
+				case KeyEvent.VK_BACK_SPACE:
+				case KeyEvent.VK_SPACE:
+					if(!keys[keyCode])
+						COMMANDS.add(keyCode);
 					break;
 				case KeyEvent.VK_C:
-					hold();
-					break;
-				case KeyEvent.VK_SPACE:
-					if(!keys[KeyEvent.VK_SPACE])
-						curr.drop();
+					COMMANDS.add(keyCode);
 					break;
 				default :
 					break;
 				}
 			}
 
-			if(e.getKeyCode() == KeyEvent.VK_P && !keys[KeyEvent.VK_P]) {
+			if(keyCode == KeyEvent.VK_P && !keys[KeyEvent.VK_P]) {
 				if(gameStatus.equals("RUNNING")) {
 					pause();
 					keys[KeyEvent.VK_P] = true;
@@ -495,88 +1107,206 @@ public class TetrisGame {
 			}
 
 			if(gameStatus.equals("STOPPED"))
-				if(e.getKeyCode() == KeyEvent.VK_SPACE) {
+				if(keyCode == KeyEvent.VK_SPACE) {
 					renew();
 				}
 
-			keys[e.getKeyCode()] = true;
+			keys[keyCode] = true;
+		}
 
+		/**
+		 * make a key queued by pressKey. called by the step, on the thread
+		 * that steps the game. nothing moves while a boom is shown.
+		 */
+		private void applyKey(int keyCode) {
+			if(!gameStatus.equals("RUNNING") || isBooming)
+				return;
+			hasChanged = true;
+			switch(keyCode) {
+			case KeyEvent.VK_UP:
+			case KeyEvent.VK_Z:
+				curr.spinCCW();
+				break;
+			case KeyEvent.VK_X:
+				curr.spinCW();
+				break;
+			case KeyEvent.VK_C:
+				hold();
+				break;
+			case KeyEvent.VK_BACK_SPACE:
+				rewind();
+				break;
+			case KeyEvent.VK_SPACE:
+				curr.drop();
+				break;
+			default :
+				break;
+			}
 		}
 
 		public void keyReleased(KeyEvent e) {
-			if(e.getKeyCode() > 255) return;
-
-			if(e.getKeyCode() == KeyEvent.VK_DOWN && hasBoosted) {
-				deboost();
-				hasBoosted = false;
-			}
+			releaseKey(e.getKeyCode());
+		}
 
-			keys[e.getKeyCode()] = false;
+		/**
+		 * handle a released key, see pressKey
+		 */
+		public void releaseKey(int keyCode) {
+			if(keyCode > 255) return;
+			keys[keyCode] = false;
 
 		}
 
 		public void keyTyped(KeyEvent arg0) {}
 
+		public boolean isKeyHeld(int keyCode) {
+			return keys[keyCode];
+		}
+
+		/**
+		 * move the dropping block one column, for the key repeater
+		 * 
+		 * @param direction -1 for left, 1 for right
+		 * @return whether the block has moved
+		 */
+		public boolean shift(int direction) {
+			int col = curr.getReference()[1];
+			if(direction < 0)
+				curr.left();
+			else
+				curr.right();
+			if(curr.getReference()[1] == col)
+				return false;
+			hasChanged = true;
+			return true;
+		}
+
+		/**
+		 * move the dropping block one row down for a soft drop, which is
+		 * worth 5 points a row
+		 * 
+		 * @return whether the block has moved
+		 */
+		public boolean softDrop() {
+			if(!curr.down())
+				return false;
+			hasChanged = true;
+			score += 5;
+			fireEvent(GameEvent.Type.SCORE_CHANGED, score);
+			return true;
+		}
+
+		/**
+		 * set the timers of the game core for a new game
+		 */
+		public void startTimers() {
+			scheduleGarbage();
+		}
+
 		/**
 		 * If level is over 5, blocks in random position of a line will appear
-		 * for a certain interval, and the interval will be shorter as level
-		 * goes up.
-		 */
-		public void doEachSecond() {
-			if(level > 5) {
-				secondCounter++;
-				if(secondCounter >= 35-1.5*level) {
-					for(int j = 0; j < 10; j++) {
-						for(int i = 1; i < 20; i++)
-							map[i-1][j] = map[i][j];
-						int colorIndex = (int) (Math.random()*(level+3));
-						if(colorIndex >= 7)
-							map[19][j] = null;
-						else
-							map[19][j] = TetrisBlock.TETRIS_COLORS[colorIndex];
-					}
-					secondCounter = 0;
-					blocksHasUpdated = true;
-					repaint();
+		 * every few seconds, and the interval will be shorter as level goes
+		 * up.
+		 */
+		private void scheduleGarbage() {
+			if(level > 5)
+				GARBAGE.schedule(Math.max(1, (long) Math.ceil(35-1.5*level)) * 1000000000L);
+			else
+				GARBAGE.cancel();
+		}
+
+		private void levelUp() {
+			numClearedLines -= 4;
+			level++;
+			updateRate *= 1.04;
+			fireEvent(GameEvent.Type.LEVEL_UP, level);
+			if(!GARBAGE.isScheduled())
+				scheduleGarbage();
+		}
+
+		public boolean isBooming() {
+			return isBooming;
+		}
+
+		/**
+		 * shift every line up and fill the bottom lines with blocks in random
+		 * positions. the higher the level, the fewer holes a line has. lines 
+		 * shifted out of the top are lost.
+		 * 
+		 * @param lines the number of lines to rise
+		 * @param needsHole whether a line must have at least one hole, so 
+		 * 			that garbage sent by an opponent can never be cleared for
+		 * 			free
+		 */
+		public void riseGarbage(int lines, boolean needsHole) {
+			hasChanged = true;
+			for(int n = 0; n < lines; n++) {
+				for(int i = 1; i < 20; i++) {
+					rows[i-1] = rows[i];
+					this.lines[i-1] = this.lines[i];
+				}
+				long row = 0;
+				boolean hasHole = false;
+				for(int j = 0; j < 10; j++) {
+					int colorIndex = random.nextInt(level+3);
+					if(colorIndex >= 7)
+						hasHole = true;
+					else
+						row = PackedBoard.with(row, j, PackedBoard.codeOf(colorIndex));
 				}
+				if(needsHole && !hasHole)
+					row = PackedBoard.with(row, random.nextInt(10), PackedBoard.EMPTY);
+				rows[19] = row;
+				this.lines[19] = PackedBoard.toBits(row);
 			}
+			//every brick has moved up, and the new lines may have bricks
+			for(int j = 0; j < 10; j++)
+				settleColumnTop(j, Math.max(0, columnTops[j] - lines));
+			//the full lines waiting to be cleared have moved up as well
+			for(int k = needClearLines.size() - 1; k >= 0; k--) {
+				int row = needClearLines.get(k) - lines;
+				if(row < 0)
+					needClearLines.remove(k);
+				else
+					needClearLines.set(k, row);
+			}
+			updateFeatures();
+			fireEvent(GameEvent.Type.GARBAGE_RISE, lines);
 		}
 
 		/**
-		 * if the solidified blocks has been updated (such as, a new block is
-		 * solidified), update the background image; otherwise, paint the back-
-		 * ground image which contains all the solidified blocks.
+		 * paint the last published frame. the game is never read directly,
+		 * since it changes on another thread while it is painted. the 
+		 * painter keeps the solidified blocks in an image, and only redraws
+		 * the lines that have changed since the last paint.
 		 */
 		public void paintComponent(Graphics g) {
-			g.setColor(Color.darkGray);
-			g.fillRect(0, 0, 150, 300);
-			if(blocksHasUpdated) {
-				Color[][] map = this.map.clone();
-				Graphics ig = baseBlocks.getGraphics();
-				ig.setColor(Color.darkGray);
-				ig.fillRect(0, 0, 150, 300);
-				for(int i = 0; i < 20; i++)
-					for(int j = 0; j < 10; j++)
-						if(map[i][j] != null) {
-							drawBrick(15*j, 15*i, map[i][j], ig);
-						}
-				blocksHasUpdated = false;
+			if(!hasPainted) {
+				StartupTrace.mark("first paint");
+				hasPainted = true;
 			}
-			g.drawImage(baseBlocks, 0, 0, this);
-			for(int[] b: curr.getBricksWithin()) {
-				drawBrick(15*b[1], 15*b[0], curr.getColor(), g);
+			GameFrame frame = this.frame;
+			if(frame == null) {
+				g.setColor(Color.darkGray);
+				g.fillRect(0, 0, 150, 300);
+				return;
 			}
+			if(painter == null)
+				painter = new GamePainter();
+			painter.paintBoard(g, frame);
 		}
 
 		/**
 		 * change the music, add score, check whether game is
-		 * ended, check whether the player has a boom, check whether the game
-		 * is boosted. update the game according to the status
+		 * ended, check whether the player has a boom. update the game 
+		 * according to the status
 		 */
 		public void updateGame() {
+			hasChanged = true;
 			//change the music after level 10
-			if(level >= 10 && !hasChangedMusicMode) {
-				sequencer.setLoopEndPoint(65280);
+			Sequencer music = sequencer;
+			if(level >= 10 && !hasChangedMusicMode && music != null) {
+				music.setLoopEndPoint(65280);
 				hasChangedMusicMode = true;
 			}
 			//if any number of lines is cleared, add score accordingly
@@ -592,33 +1322,38 @@ public class TetrisGame {
 				break;
 				case 4:	
 					score += 2500;
+					if(!hasBoom)
+						fireEvent(GameEvent.Type.BOOM_GRANTED, 0);
 					hasBoom = true;
 					break;
 				default:
 					break;
 				}
 				numClearedLines += needClearLines.size();
+				fireEvent(GameEvent.Type.LINES_CLEARED, needClearLines.size());
+				pieceStats.linesCleared(needClearLines.size());
 				
 				//only happen if a boom exists. after a boom, game becomes harder
-				if(numClearedLines >= 4) { 
-					numClearedLines -= 4;
-					level++;
-					updateRate *= 1.04;
-				}
-				RIGHT_PANEL.repaint();
+				if(numClearedLines >= 4)
+					levelUp();
 				
 				//remove the cleared lines and shift any hanging line down
 				int shift = 0;
 				while(!needClearLines.isEmpty()) {
 					for(int i = needClearLines.remove(0) + shift; i > 0; i--) {
-						for(int j = 0; j < 10; j++)
-							map[i][j] = map[i-1][j];
+						rows[i] = rows[i-1];
+						lines[i] = lines[i-1];
 					}
-					for(int j = 0; j < 10; j++)
-						map[0][j] = null;
+					rows[0] = 0;
+					lines[0] = 0;
 					shift++;
 				}
-				blocksHasUpdated = true;
+				//the full lines are below the top of every column, so every
+				//top moves down by the number of cleared lines, or further if
+				//the bricks right under the top were all cleared
+				for(int j = 0; j < 10; j++)
+					settleColumnTop(j, Math.min(20, columnTops[j] + shift));
+				updateFeatures();
 				return;
 			}
 			//if a block cannot go down anymore, block solidifies or game ends
@@ -627,13 +1362,16 @@ public class TetrisGame {
 				if(curr.getBricksWithin().isEmpty()) {
 					//end game
 					stop();
+					fireEvent(GameEvent.Type.GAME_OVER, score);
+					log("Pieces: " + pieceStats);
 					//record the best scores
 					if(score > bestScore[0]) {
-						JOptionPane.showMessageDialog(WINDOW, "New Best Score!" + "\n" + score);
+						if(hasWindow)
+							JOptionPane.showMessageDialog(WINDOW, "New Best Score!" + "\n" + score);
 						bestScore[2] = bestScore[1];
 						bestScore[1] = bestScore[0];
 						bestScore[0] = score;
-						System.out.println("New Best Score: " + score);
+						log("New Best Score: " + score);
 					} else if(score > bestScore[1]) {
 						bestScore[2] = bestScore[1];
 						bestScore[1] = score;
@@ -644,85 +1382,119 @@ public class TetrisGame {
 				}
 				//if the game does not end, the block is solidified
 				curr.solidify();
+				updateFeatures();
+				pieceStats.pieceLocked(curr.getType(), features);
+				fireEvent(GameEvent.Type.PIECE_LOCKED, curr.getType());
 				//if boom exists, it clears the screen after 4 drops
 				if(hasBoom) {
 					boomCounter++;
 					if(boomCounter >= 3) {
-						//the boom works by filling all the lines first, then clearing them
-						int firstLineWithBricks = -1;
-						for(int i = 0; i < 20 && firstLineWithBricks == -1; i++) {
-							boolean isEmpty = true;
-							for(int j = 0; j < 10 && isEmpty; j++)
-								if(map[i][j] != null)
-									isEmpty = false;
-							if(!isEmpty) {
-								firstLineWithBricks = i;
-							}
-						}
-						for(int i = 19; i >= firstLineWithBricks; i--)
-							for(int j = 0; j < 10; j ++) {
-								if(map[i][j] == null) {
-									map[i][j] = TetrisBlock.TETRIS_COLORS[(int) (Math.random()*7)];
-									blocksHasUpdated = true;
-									try {Thread.sleep(50);} catch (InterruptedException e) {}
-									repaint();
-								}
-							}
-						try {Thread.sleep((long) (1000/updateRate));} catch (InterruptedException e) {}
-						map = new Color[20][10];
-						score += (20-firstLineWithBricks)*100;
-						blocksHasUpdated = true;
-						repaint();
-						numClearedLines += (20-firstLineWithBricks);
-						while(numClearedLines >= 4) {
-							numClearedLines -= 4;
-							level++;
-							updateRate *= 1.04;
-						}
-						//boom is used after a full screen clear
-						boomCounter = 0;
-						hasBoom = false;
+						startBoom();
+						if(isBooming)
+							return;
 					}
 				}
-				curr = next;
-				hasHeld = false;
-				blocksHasUpdated = true;
-				hasResetBoost = true;
-				//boost only works for one drop, so that player has to release
-				//and press the down key again to boost again
-				if(hasBoosted) {
-					deboost();
-					hasBoosted = false;
-				}
-				//check whether any line is all filled so that they need to be cleared
-				//these lines are cleared in next update
-				for(int i = 19; i >= 0; i--) {
-					boolean hasNull = false;
-					for(int j = 0; j < 10 && !hasNull; j++)
-						if(map[i][j] == null)
-							hasNull = true;
-					if(hasNull == false) {
-						needClearLines.add(i);
+				spawnNext();
+			}
+		}
+
+		/**
+		 * the next block becomes the current one, and a new next block appears
+		 */
+		private void spawnNext() {
+			curr = next;
+			hasHeld = false;
+			//check whether any line is all filled so that they need to be cleared
+			//these lines are cleared in next update
+			for(int i = 19; i >= 0; i--)
+				if(lines[i] == TetrisAI.FULL_LINE)
+					needClearLines.add(i);
+			next = new TetrisBlock(TetrisGame.this);
+			saveSnapshot();
+			fireEvent(GameEvent.Type.PIECE_SPAWNED, next.getType());
+		}
+
+		/**
+		 * the boom works by filling all the lines first, then clearing them.
+		 * a game with a window shows it a brick at a time, on the timers of
+		 * the game, and stands still until it is over. a game without a window
+		 * skips the animation.
+		 */
+		private void startBoom() {
+			boomTop = -1;
+			for(int i = 0; i < 20 && boomTop == -1; i++)
+				if(lines[i] != 0)
+					boomTop = i;
+			boomRow = 19;
+			boomCol = 0;
+			if(hasWindow) {
+				isBooming = true;
+				BOOM_FILL.schedule(0);
+				return;
+			}
+			while(fillBoomBrick());
+			clearBoom();
+		}
+
+		/**
+		 * fill the next empty brick from the bottom up
+		 * 
+		 * @return whether a brick has been filled, false if the lines are full
+		 */
+		private boolean fillBoomBrick() {
+			for(; boomRow >= boomTop; boomRow--, boomCol = 0)
+				for(; boomCol < 10; boomCol++)
+					if((lines[boomRow] & (1 << boomCol)) == 0) {
+						setBrick(boomRow, boomCol, PackedBoard.codeOf(random.nextInt(7)));
+						if(hasWindow) {
+							hasChanged = true;
+							repaint();
+						}
+						return true;
 					}
-				}
-				next = new TetrisBlock(TetrisGame.this);
+			return false;
+		}
+
+		/**
+		 * clear the filled lines, with a bonus for each one
+		 */
+		private void clearBoom() {
+			for(int i = 0; i < 20; i++) {
+				rows[i] = 0;
+				lines[i] = 0;
 			}
-			if(hasBoosted)
-				score += 5;
-			RIGHT_PANEL.repaint();
+			resetColumnTops();
+			features = BoardFeatures.EMPTY;
+			score += (20-boomTop)*100;
+			hasChanged = true;
+			repaint();
+			numClearedLines += (20-boomTop);
+			fireEvent(GameEvent.Type.BOOM_FIRED, 20-boomTop);
+			while(numClearedLines >= 4)
+				levelUp();
+			//boom is used after a full screen clear
+			boomCounter = 0;
+			hasBoom = false;
+			isBooming = false;
 		}
 
 		/**
 		 * reset all game status
 		 */
 		public void resetGame() {
+			hasChanged = true;
 			curr = new TetrisBlock(TetrisGame.this);
 			next = null;
-			map = new Color[20][10];
+			for(int i = 0; i < 20; i++) {
+				rows[i] = 0;
+				lines[i] = 0;
+			}
+			resetColumnTops();
+			features = BoardFeatures.EMPTY;
+			if(history != null)
+				history.clear();
 			needClearLines = new ArrayList<Integer>();
-			blocksHasUpdated = false;
-			hasResetBoost = false;
-			baseBlocks = new BufferedImage(150, 300, BufferedImage.TYPE_INT_ARGB);
+			pieceStats.clear();
 			score = 0;
 			bestScore = new int[]{0, 0, 0};
 			level = 1;
@@ -731,12 +1503,20 @@ public class TetrisGame {
 			boomCounter = 0;
 			hasHeld = false;
 			hasChangedMusicMode = false;
+			isBooming = false;
+		}
+
+		/**
+		 * @return whether hold can be used for the current block
+		 */
+		public boolean canHold() {
+			return !hasHeld;
 		}
 
 		/**
 		 * swap the current block with the next. can only use once each drop
 		 */
-		private void hold() {
+		public void hold() {
 			if(!hasHeld) {
 				int currType = curr.getType();
 				int[] currRef = curr.getReference();
@@ -746,8 +1526,29 @@ public class TetrisGame {
 				//spin the block so that they will not go outside of the visible area
 				curr.spinCCW();
 				curr.spinCW();
-				next = new TetrisBlock(TetrisGame.this, currType, (int) (Math.random()*4), null);
+				next = new TetrisBlock(TetrisGame.this, currType, random.nextInt(4), null);
 				hasHeld = true;
+				fireEvent(GameEvent.Type.PIECE_SPAWNED, next.getType());
+			}
+		}
+
+		/**
+		 * the solidified blocks are only changed by locks, clears, garbage 
+		 * and booms. the dropping block is repainted by the game loop.
+		 */
+		public void gameEventsFired(List<GameEvent> events) {
+			for(GameEvent e: events) {
+				switch(e.getType()) {
+				case PIECE_LOCKED:
+				case LINES_CLEARED:
+				case GARBAGE_RISE:
+				case BOOM_FIRED:
+				case REWOUND:
+					repaint();
+					return;
+				default:
+					break;
+				}
 			}
 		}
 
@@ -759,13 +1560,13 @@ public class TetrisGame {
 	 * @author Administrator
 	 *
 	 */
-	class RightPanel extends JPanel implements ActionListener {
+	class RightPanel extends JPanel implements ActionListener, GameListener {
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = 4290784483041002295L;
-		private final int[] nextBlockRef = new int[]{2, 1};
 		private JButton startButton;
+		private boolean showsFeatures;		//whether the features of the board are shown over the panel
 
 		public RightPanel() {
 			this.setLayout(null);
@@ -777,26 +1578,63 @@ public class TetrisGame {
 		}
 
 		public void paintComponent(Graphics g) {
-			g.setColor(Color.gray);
-			g.fillRect(0, 0, 90, 300);
+			GameFrame frame = GAME_CORE.getFrame();
+			if(frame == null)
+				GamePainter.paintSidePanel(g, -1, 0, 1, false);
+			else
+				GamePainter.paintSidePanel(g, frame.getNextType(), frame.getScore(), frame.getLevel(), frame.hasBoom());
+			if(showsFeatures && frame != null)
+				paintFeatures(g, frame);
+		}
+
+		/**
+		 * show the features of the board over the panel below the next 
+		 * block, with the score and the level that they cover
+		 */
+		private void paintFeatures(Graphics g, GameFrame frame) {
+			BoardFeatures f = frame.getFeatures();
+			g.setColor(new Color(0, 0, 0, 200));
+			g.fillRect(0, 95, 90, 150);
+			g.setFont(g.getFont().deriveFont(10f));
+			String[] rows = {
+					"Score " + frame.getScore(),
+					"Level " + frame.getLevel(),
+					"Holes " + f.getHoles(),
+					"Height " + f.getMaxHeight() + " / " + f.getTotalHeight(),
+					"Bumpiness " + f.getBumpiness(),
+					"Wells " + f.getWells(),
+					"Row trans. " + f.getRowTransitions(),
+					"Col trans. " + f.getColumnTransitions(),
+					"Near full " + f.getNearFullRows()};
 			g.setColor(Color.white);
-			g.drawString("Next Block:", 10, 20);
-			g.setColor(Color.green);
-			g.drawString("Score:", 10, 120);
-			g.drawString(Integer.toString(GAME_CORE.getScore()), 10, 140);
-			g.setColor(Color.yellow);
-			g.drawString("Level:", 10, 170);
-			g.drawString(Integer.toString(GAME_CORE.getLevel()), 10, 190);
-			if(GAME_CORE.hasBoom()) {
-				g.setColor(Color.red.darker());
-				g.drawString("YOU HAS", 10, 220);
-				g.drawString("A BOOM!!!", 10, 235);
-			}
-			if(GAME_CORE.getNext() != null) {
-				Color c = GAME_CORE.getNext().getColor();
-				TetrisBlock next = new TetrisBlock(TetrisGame.this, GAME_CORE.getNext().getType(), 0, nextBlockRef);
-				for(int[] b: next.getBricksWithin())
-					drawBrick(15*b[1], 15*b[0], c, g);
+			for(int k = 0; k < rows.length; k++)
+				g.drawString(rows[k], 6, 110 + 15*k);
+		}
+
+		public void setShowsFeatures(boolean showsFeatures) {
+			this.showsFeatures = showsFeatures;
+			repaint();
+		}
+
+		/**
+		 * the panel only shows the next block, score, level and boom, so it
+		 * is not repainted when only the dropping block moves. the features
+		 * of the board also change by locks and garbage.
+		 */
+		public void gameEventsFired(List<GameEvent> events) {
+			for(GameEvent e: events) {
+				switch(e.getType()) {
+				case PIECE_LOCKED:
+				case GARBAGE_RISE:
+					if(showsFeatures) {
+						repaint();
+						return;
+					}
+					break;
+				default:
+					repaint();
+					return;
+				}
 			}
 		}
 
@@ -811,11 +1649,6 @@ public class TetrisGame {
 	}
 
 	private void drawBrick(int x, int y, Color color, Graphics g) {
-		g.setColor(color.brighter());
-		g.fillPolygon(new int[]{x, x+15, x}, new int[]{y, y, y+15}, 3);
-		g.setColor(color.darker());
-		g.fillPolygon(new int[]{x+15, x+15, x}, new int[]{y, y+15, y+15}, 3);
-		g.setColor(color);
-		g.fillRect(x+2, y+2, 10, 10);
+		GamePainter.drawBrick(x, y, color, g);
 	}
 }
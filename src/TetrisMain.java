@@ -1,8 +1,101 @@
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
+
 public class TetrisMain {
 
-	public static void main(String[] args) {
-		new TetrisGame("Medium");
+	/**
+	 * with no arguments, a single game is started. "active" starts a single
+	 * game whose board is painted by its own render thread. "versus [players]
+	 * [bots] [difficulty]" starts a versus match, for example "versus 2 6 Hard".
+	 * "bot [command ...]" starts a single game played by an external program
+	 * (see ExternalBot), by default the ReferenceBot. "share [file]" starts a
+	 * single game that publishes its state into a file for other processes,
+	 * such as a SharedStateViewer. "wall [games] [fps]" shows a wall of bot
+	 * games (see WallView).
+	 *
+	 * the system property tetris.rotation chooses how the blocks spin: 
+	 * "classic" (the default), "srs", or a file of kicks (see 
+	 * RotationSystem).
+	 *
+	 * the window is built on the event dispatch thread while the sprites, the
+	 * tables of the blocks and the music load in the background, and the time
+	 * each of them takes is printed (see StartupTrace).
+	 */
+	public static void main(final String[] args) throws IOException {
+		final String mode = args.length > 0 ? args[0] : "";
+		if(mode.equals("wall")) {
+			WallView.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if(mode.equals("versus"))
+			StartupTrace.begin("ui", "first paint", "sprites", "tables");
+		else
+			StartupTrace.begin("ui", "first paint", "sprites", "tables", "midi");
+		warmUp();
+
+		//what the game needs besides its window is made here, where it may fail
+		final TetrisAI bot;
+		if(mode.equals("bot")) {
+			String[] command = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+					: ExternalBot.referenceBotCommand();
+			final ExternalBot external = new ExternalBot(command, false);
+			//the window exits the JVM when it is closed, so the program is
+			//told to quit on the way out
+			Runtime.getRuntime().addShutdownHook(new Thread("ExternalBot close") {
+				public void run() {
+					external.close();
+				}
+			});
+			bot = external;
+		} else
+			bot = null;
+		final SharedStateWriter sharedState = mode.equals("share")
+				? new SharedStateWriter(new File(args.length > 1 ? args[1] : "tetris.state")) : null;
+		final RotationSystem rotation = RotationSystem.forName(System.getProperty("tetris.rotation", "classic"));
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				long start = StartupTrace.now();
+				if(mode.equals("versus")) {
+					int players = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+					int bots = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+					String difficulty = args.length > 3 ? args[3] : "Medium";
+					VersusGame versus = new VersusGame(players, bots, difficulty);
+					for(TetrisGame game: versus.getGames())
+						game.setRotationSystem(rotation);
+				} else {
+					TetrisGame game = new TetrisGame("Medium", true, mode.equals("active"));
+					game.setRotationSystem(rotation);
+					game.setBot(bot);
+					game.setSharedState(sharedState);
+				}
+				StartupTrace.record("ui", start);
+			}
+		});
+	}
+
+	/**
+	 * draw the sprites of the bricks and build the tables of the blocks in
+	 * the background, so that the first paint does not wait for them
+	 */
+	private static void warmUp() {
+		final long start = StartupTrace.now();
+		StartupTrace.BACKGROUND.execute(new Runnable() {
+			public void run() {
+				TetrisBlock.loadTables();
+				StartupTrace.record("tables", start);
+			}
+		});
+		StartupTrace.BACKGROUND.execute(new Runnable() {
+			public void run() {
+				GamePainter.loadSprites();
+				StartupTrace.record("sprites", start);
+			}
+		});
 	}
 
 }
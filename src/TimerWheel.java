@@ -0,0 +1,353 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            TimerWheel.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.util.ArrayList;
+
+/**
+ * runs the timers of one or many games: gravity, garbage, the animation of
+ * a boom, and whatever timed rule comes next. a timer is scheduled,
+ * rescheduled and cancelled in constant time, however many timers there
+ * are, and the time only moves when advance is called, so the wheel runs
+ * as well on virtual time as on the wall clock.
+ *
+ * the wheel is hierarchical: the time is cut into ticks, and there are 4
+ * levels of 64 slots. a timer due in the next 64 ticks is in the slot of
+ * its tick at level 0; a timer due later is in a slot of a higher level,
+ * which covers 64 times as many ticks, and is moved down a level when the
+ * time reaches the start of its slot. the 4 levels cover 2^24 ticks (4.6
+ * hours with ticks of 1 ms), timers due even later wait in a list that is
+ * looked at every 2^24 ticks. each level keeps a bit for each slot that has
+ * timers, so the wheel goes straight to the next slot with timers, and the
+ * cost of advancing does not depend on the number of ticks.
+ *
+ * the timers belong to clocks, a clock for each game. pausing a clock takes
+ * its timers out of the wheel and keeps the time they had left, so a paused
+ * game keeps its timers frozen while the other games on the same wheel go
+ * on. the wheel is not thread safe: the timers are scheduled and the wheel
+ * advanced by the thread that steps the games.
+ *
+ * @author Administrator
+ *
+ */
+public class TimerWheel {
+
+	private final static int LEVELS = 4;
+	private final static int SLOT_BITS = 6;
+	private final static int SLOTS = 1 << SLOT_BITS;
+	private final static int MASK = SLOTS - 1;
+	private final long tickNanos;
+	private final Timer[][] slots = new Timer[LEVELS][SLOTS];	//the heads of circular lists
+	private final Timer far = new Head();		//timers due after the 4 levels
+	private final long[] occupied = new long[LEVELS];	//a bit for each slot that has timers
+	private long currentTick;
+	private int size;
+
+	/**
+	 * a wheel with ticks of 1 ms
+	 */
+	public TimerWheel() {
+		this(1000000);
+	}
+
+	/**
+	 * @param tickNanos the length of a tick. a timer fires at the first tick
+	 * 			at or after its time
+	 */
+	public TimerWheel(long tickNanos) {
+		if(tickNanos <= 0)
+			throw new IllegalArgumentException("tick must be positive");
+		this.tickNanos = tickNanos;
+		for(int l = 0; l < LEVELS; l++)
+			for(int s = 0; s < SLOTS; s++)
+				slots[l][s] = new Head();
+	}
+
+	/**
+	 * @return the time of the wheel in nanoseconds, which starts at 0 and is
+	 * 			a whole number of ticks
+	 */
+	public long getTime() {
+		return currentTick * tickNanos;
+	}
+
+	/**
+	 * @return the number of timers in the wheel, not counting the timers of
+	 * 			paused clocks
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * move the time forward, and fire the timers that are due, in the order
+	 * of their ticks. a timer may schedule itself or any other timer while
+	 * it fires; a timer scheduled to fire at once fires in the next tick.
+	 *
+	 * @param time the new time in nanoseconds. a time before the time of the
+	 * 			wheel is ignored.
+	 */
+	public void advance(long time) {
+		long target = time / tickNanos;
+		while(currentTick < target) {
+			long next = nextSlot();
+			if(next > target) {
+				currentTick = target;
+				return;
+			}
+			currentTick = next;
+			//move the timers of the slots that start now down, from the top
+			int level = 0;
+			while(level < LEVELS && (currentTick & ((1L << (SLOT_BITS * (level + 1))) - 1)) == 0)
+				level++;
+			if(level == LEVELS)
+				relink(far);
+			for(int l = Math.min(level, LEVELS - 1); l > 0; l--)
+				relink(slots[l][(int) (currentTick >>> (SLOT_BITS * l)) & MASK]);
+			Timer head = slots[0][(int) currentTick & MASK];
+			while(head.next != head) {
+				Timer t = head.next;
+				unlink(t);
+				t.expired();
+			}
+		}
+	}
+
+	/**
+	 * @return the tick at which the next slot with timers starts, at any
+	 * 			level. the slots before it at every level are empty, so the
+	 * 			ticks up to it can be skipped.
+	 */
+	private long nextSlot() {
+		for(int l = 0; l < LEVELS; l++) {
+			int shift = SLOT_BITS * l;
+			int index = (int) (currentTick >>> shift) & MASK;
+			long later = occupied[l] & (-2L << index);
+			if(later != 0) {
+				long lap = currentTick >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+				return lap + ((long) Long.numberOfTrailingZeros(later) << shift);
+			}
+		}
+		if(far.next != far)
+			return ((currentTick >>> (SLOT_BITS * LEVELS)) + 1) << (SLOT_BITS * LEVELS);
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * put the timer in the slot of its tick, at the lowest level whose slots
+	 * the time has not passed yet
+	 */
+	private void link(Timer t) {
+		Timer head = far;
+		t.level = LEVELS;
+		for(int l = 0; l < LEVELS; l++)
+			if(t.deadline >>> (SLOT_BITS * (l + 1)) == currentTick >>> (SLOT_BITS * (l + 1))) {
+				int index = (int) (t.deadline >>> (SLOT_BITS * l)) & MASK;
+				head = slots[l][index];
+				occupied[l] |= 1L << index;
+				t.level = l;
+				break;
+			}
+		t.prev = head.prev;
+		t.next = head;
+		head.prev.next = t;
+		head.prev = t;
+		size++;
+	}
+
+	private void unlink(Timer t) {
+		t.prev.next = t.next;
+		t.next.prev = t.prev;
+		//the slot is empty if the timer was its only one
+		if(t.level < LEVELS && t.next == t.prev)
+			occupied[t.level] &= ~(1L << ((int) (t.deadline >>> (SLOT_BITS * t.level)) & MASK));
+		t.prev = null;
+		t.next = null;
+		size--;
+	}
+
+	/**
+	 * take every timer out of the list and put it back where it belongs now
+	 */
+	private void relink(Timer head) {
+		Timer t = head.next;
+		head.next = head;
+		head.prev = head;
+		while(t != head) {
+			Timer next = t.next;
+			if(t.level < LEVELS)
+				occupied[t.level] &= ~(1L << ((int) (t.deadline >>> (SLOT_BITS * t.level)) & MASK));
+			size--;
+			link(t);
+			t = next;
+		}
+	}
+
+	/**
+	 * a timer of a clock. it is created once and scheduled again each time
+	 * it is needed, usually as an anonymous class whose expired method does
+	 * the work.
+	 *
+	 * @author Administrator
+	 *
+	 */
+	public static abstract class Timer {
+
+		private final Clock clock;
+		private Timer prev, next;			//the neighbours in a slot, null if not in the wheel
+		private long deadline;				//the tick it fires at
+		private int level;					//the level of its slot, LEVELS if far
+		private long remaining = -1;		//the time left while the clock is paused, -1 if none
+
+		/**
+		 * @param clock the clock the timer belongs to, null only for the
+		 * 			heads of the lists of the wheel
+		 */
+		public Timer(Clock clock) {
+			this.clock = clock;
+			if(clock != null)
+				clock.timers.add(this);
+		}
+
+		/**
+		 * called by the wheel when the timer is due. it is no longer
+		 * scheduled then, a repeating timer schedules itself again.
+		 */
+		public abstract void expired();
+
+		/**
+		 * schedule the timer, or reschedule it if it is already scheduled
+		 *
+		 * @param delayNanos the time from now to when it fires
+		 */
+		public void schedule(long delayNanos) {
+			cancel();
+			if(clock.isPaused) {
+				remaining = Math.max(0, delayNanos);
+				return;
+			}
+			TimerWheel wheel = clock.wheel;
+			long ticks = (delayNanos + wheel.tickNanos - 1) / wheel.tickNanos;
+			deadline = wheel.currentTick + Math.max(1, ticks);
+			wheel.link(this);
+		}
+
+		public void cancel() {
+			if(next != null)
+				clock.wheel.unlink(this);
+			remaining = -1;
+		}
+
+		/**
+		 * @return whether the timer is scheduled, which it still is while its
+		 * 			clock is paused
+		 */
+		public boolean isScheduled() {
+			return next != null || remaining >= 0;
+		}
+
+		/**
+		 * @return the time left before the timer fires, or -1 if it is not
+		 * 			scheduled
+		 */
+		public long getRemaining() {
+			if(next != null)
+				return (deadline - clock.wheel.currentTick) * clock.wheel.tickNanos;
+			return remaining;
+		}
+	}
+
+	/**
+	 * the first node of a list of the wheel, which is never fired
+	 */
+	private static class Head extends Timer {
+
+		Head() {
+			super(null);
+			setEmpty();
+		}
+
+		private void setEmpty() {
+			((Timer) this).prev = this;
+			((Timer) this).next = this;
+		}
+
+		public void expired() {}
+	}
+
+	/**
+	 * the timers of one game, which are paused and resumed together
+	 *
+	 * @author Administrator
+	 *
+	 */
+	public static class Clock {
+
+		private final ArrayList<Timer> timers = new ArrayList<Timer>();
+		private TimerWheel wheel;
+		private boolean isPaused;
+
+		public Clock(TimerWheel wheel) {
+			this.wheel = wheel;
+		}
+
+		public TimerWheel getWheel() {
+			return wheel;
+		}
+
+		/**
+		 * move the timers to another wheel. they keep the time they have
+		 * left, counted from the time of the new wheel.
+		 */
+		public void setWheel(TimerWheel wheel) {
+			if(wheel == this.wheel)
+				return;
+			boolean wasPaused = isPaused;
+			pause();
+			this.wheel = wheel;
+			if(!wasPaused)
+				resume();
+		}
+
+		public boolean isPaused() {
+			return isPaused;
+		}
+
+		/**
+		 * take the timers out of the wheel, keeping the time they have left
+		 */
+		public void pause() {
+			if(isPaused)
+				return;
+			for(Timer t: timers)
+				if(t.next != null) {
+					long left = t.getRemaining();
+					wheel.unlink(t);
+					t.remaining = left;
+				}
+			isPaused = true;
+		}
+
+		/**
+		 * put the timers back in the wheel, each due after the time it had
+		 * left when the clock was paused
+		 */
+		public void resume() {
+			if(!isPaused)
+				return;
+			isPaused = false;
+			for(Timer t: timers)
+				if(t.remaining >= 0)
+					t.schedule(t.remaining);
+		}
+
+		public void cancelAll() {
+			for(Timer t: timers)
+				t.cancel();
+		}
+	}
+}
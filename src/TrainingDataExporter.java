@@ -0,0 +1,303 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            TrainingDataExporter.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * writes (board, current block, next block, chosen place, reward) records of
+ * simulated games into binary files, for training models.
+ *
+ * every thread that records gets its own writer, with its own direct buffer
+ * and its own files, so the threads never wait for each other. a writer puts
+ * the fields of a record straight into its buffer, without creating any
+ * object, and writes the buffer out as one chunk when it is full. a file is
+ * closed and the next one is opened when it would grow over the size limit.
+ * files are named prefix-writer-sequence.tdat.
+ *
+ * a file is a series of chunks. all numbers are little endian. a chunk is
+ *   int     MAGIC
+ *   short   VERSION
+ *   short   number of columns
+ *   int     number of records n in the chunk
+ * followed by the columns, each with the value of all n records in a row:
+ *   BOARD         25 bytes  the 200 cells, row by row from the top, bit k of
+ *                           the board is column k%10 of row k/10, and bit k
+ *                           is bit k%8 of byte k/8. a set bit is a brick
+ *   CURR_TYPE      1 byte   type of the current block, as in TetrisBlock
+ *   CURR_ORIENT    1 byte   orientation of the current block
+ *   CURR_ROW       1 byte   row of the reference of the current block, signed
+ *   CURR_COL       1 byte   column of the reference of the current block, signed
+ *   NEXT_TYPE      1 byte   type of the next block, -1 if there is none
+ *   PLACE_ORIENT   1 byte   orientation of the chosen place
+ *   PLACE_COL      1 byte   column of the reference of the chosen place, signed
+ *   REWARD         4 bytes  float
+ *
+ * @author Administrator
+ *
+ */
+public class TrainingDataExporter implements Closeable {
+
+	public final static int MAGIC = 0x54444154;		//"TDAT"
+	public final static short VERSION = 1;
+	public final static int BOARD_BYTES = 25;
+	//width in bytes of each column, in the order they are written
+	public final static int[] COLUMN_WIDTHS = {BOARD_BYTES, 1, 1, 1, 1, 1, 1, 1, 4};
+	public final static int RECORD_BYTES = 36;
+	public final static int HEADER_BYTES = 12;
+
+	private final File directory;
+	private final String prefix;
+	private final int recordsPerChunk;
+	private final long bytesPerFile;
+	private final List<Writer> writers = new ArrayList<Writer>();
+	private final ThreadLocal<Writer> threadWriter = new ThreadLocal<Writer>() {
+		protected Writer initialValue() {
+			synchronized(writers) {
+				Writer w = new Writer(writers.size());
+				writers.add(w);
+				return w;
+			}
+		}
+	};
+	private volatile boolean isClosed;
+
+	/**
+	 * @param directory where the files are written
+	 * @param prefix the beginning of the name of every file
+	 * @param recordsPerChunk the number of records buffered before a write
+	 * @param bytesPerFile the size at which a file is closed and the next
+	 * 			file is opened
+	 */
+	public TrainingDataExporter(File directory, String prefix, int recordsPerChunk, long bytesPerFile) {
+		if(recordsPerChunk <= 0)
+			throw new IllegalArgumentException("recordsPerChunk must be positive");
+		if(bytesPerFile < HEADER_BYTES + (long) recordsPerChunk * RECORD_BYTES)
+			throw new IllegalArgumentException("a file must hold at least one chunk");
+		directory.mkdirs();
+		this.directory = directory;
+		this.prefix = prefix;
+		this.recordsPerChunk = recordsPerChunk;
+		this.bytesPerFile = bytesPerFile;
+	}
+
+	/**
+	 * record a block of a game, before the block is placed.
+	 *
+	 * @param lines the map of the game, one int per line as in TetrisAI
+	 * 			(see GameCore.getLines)
+	 * @param curr the current block, at the position where it was given
+	 * @param next the next block, can be null
+	 * @param placeOrientation the orientation of the chosen place
+	 * @param placeCol the reference column of the chosen place
+	 * @param reward the reward for the chosen place
+	 */
+	public void record(int[] lines, TetrisBlock curr, TetrisBlock next,
+			int placeOrientation, int placeCol, float reward) {
+		Writer w = writer();
+		int i = w.beginRecord();
+		w.putBoard(i, lines);
+		w.putRest(i, curr.getType(), curr.getOrientation(), curr.getReference()[0], curr.getReference()[1],
+				next == null ? -1 : next.getType(), placeOrientation, placeCol, reward);
+	}
+
+	/**
+	 * same as the other record, but the blocks are given as their fields,
+	 * for games that do not run as a TetrisGame.
+	 */
+	public void record(int[] lines, int currType, int currOrientation, int currRow, int currCol,
+			int nextType, int placeOrientation, int placeCol, float reward) {
+		Writer w = writer();
+		int i = w.beginRecord();
+		w.putBoard(i, lines);
+		w.putRest(i, currType, currOrientation, currRow, currCol, nextType, placeOrientation, placeCol, reward);
+	}
+
+	/**
+	 * write out the records buffered by the calling thread
+	 */
+	public void flush() throws IOException {
+		writer().flush();
+	}
+
+	/**
+	 * @return the number of records written or buffered by all threads
+	 */
+	public long getRecordCount() {
+		long count = 0;
+		synchronized(writers) {
+			for(Writer w: writers)
+				count += w.records;
+		}
+		return count;
+	}
+
+	/**
+	 * flush and close every writer. must only be called after every thread
+	 * has stopped recording.
+	 */
+	public void close() throws IOException {
+		isClosed = true;
+		IOException failure = null;
+		synchronized(writers) {
+			for(Writer w: writers) {
+				try {
+					w.flush();
+					w.closeFile();
+				} catch(IOException e) {
+					failure = e;
+				}
+			}
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	private Writer writer() {
+		if(isClosed)
+			throw new IllegalStateException("exporter is closed");
+		return threadWriter.get();
+	}
+
+	/**
+	 * the buffer and the files of one thread
+	 *
+	 * @author Administrator
+	 *
+	 */
+	private class Writer {
+
+		private final int index;
+		private final ByteBuffer chunk;
+		private final ByteBuffer[] parts;		//the header and every column
+		private final int[] columnStart;
+		private int count;			//records in the chunk
+		private long records;		//records in all chunks
+		private FileChannel file;
+		private int fileSequence;
+		private long fileSize;
+		private IOException failure;	//a failed write, thrown at the next record
+
+		Writer(int index) {
+			this.index = index;
+			chunk = ByteBuffer.allocateDirect(HEADER_BYTES + recordsPerChunk * RECORD_BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			columnStart = new int[COLUMN_WIDTHS.length];
+			parts = new ByteBuffer[COLUMN_WIDTHS.length + 1];
+			int offset = HEADER_BYTES;
+			for(int c = 0; c < COLUMN_WIDTHS.length; c++) {
+				columnStart[c] = offset;
+				offset += recordsPerChunk * COLUMN_WIDTHS[c];
+			}
+			//views of the same memory, created once and reused for every write
+			for(int p = 0; p < parts.length; p++)
+				parts[p] = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * @return the index of the new record in the chunk
+		 */
+		int beginRecord() {
+			if(failure != null) {
+				IOException e = failure;
+				failure = null;
+				throw new IllegalStateException("failed to write training data", e);
+			}
+			if(count == recordsPerChunk) {
+				try {
+					flush();
+				} catch(IOException e) {
+					throw new IllegalStateException("failed to write training data", e);
+				}
+			}
+			records++;
+			return count++;
+		}
+
+		void putBoard(int i, int[] lines) {
+			int pos = columnStart[0] + i * BOARD_BYTES;
+			long bits = 0;
+			int numBits = 0;
+			for(int r = 0; r < 20; r++) {
+				bits |= (long) (lines[r] & TetrisAI.FULL_LINE) << numBits;
+				numBits += 10;
+				while(numBits >= 8) {
+					chunk.put(pos++, (byte) bits);
+					bits >>>= 8;
+					numBits -= 8;
+				}
+			}
+		}
+
+		void putRest(int i, int currType, int currOrientation, int currRow, int currCol,
+				int nextType, int placeOrientation, int placeCol, float reward) {
+			chunk.put(columnStart[1] + i, (byte) currType);
+			chunk.put(columnStart[2] + i, (byte) currOrientation);
+			chunk.put(columnStart[3] + i, (byte) currRow);
+			chunk.put(columnStart[4] + i, (byte) currCol);
+			chunk.put(columnStart[5] + i, (byte) nextType);
+			chunk.put(columnStart[6] + i, (byte) placeOrientation);
+			chunk.put(columnStart[7] + i, (byte) placeCol);
+			chunk.putFloat(columnStart[8] + i * 4, reward);
+		}
+
+		/**
+		 * write the header and the used part of every column as one chunk
+		 */
+		void flush() throws IOException {
+			if(count == 0)
+				return;
+			long size = HEADER_BYTES + (long) count * RECORD_BYTES;
+			if(file == null || fileSize + size > bytesPerFile)
+				nextFile();
+			chunk.putInt(0, MAGIC);
+			chunk.putShort(4, VERSION);
+			chunk.putShort(6, (short) COLUMN_WIDTHS.length);
+			chunk.putInt(8, count);
+			parts[0].limit(HEADER_BYTES).position(0);
+			for(int c = 0; c < COLUMN_WIDTHS.length; c++) {
+				ByteBuffer part = parts[c + 1];
+				part.limit(columnStart[c] + count * COLUMN_WIDTHS[c]).position(columnStart[c]);
+			}
+			try {
+				long written = 0;
+				while(written < size)
+					written += file.write(parts);
+			} catch(IOException e) {
+				failure = e;
+				throw e;
+			} finally {
+				count = 0;
+			}
+			fileSize += size;
+		}
+
+		private void nextFile() throws IOException {
+			closeFile();
+			File f = new File(directory, prefix + "-" + index + "-" + fileSequence + ".tdat");
+			fileSequence++;
+			file = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			fileSize = 0;
+		}
+
+		void closeFile() throws IOException {
+			if(file != null) {
+				file.close();
+				file = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            TrainingDataGenerator.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * plays games without a window on several threads, faster than real time,
+ * and records every place chosen by the bots with a TrainingDataExporter.
+ * the reward of a place is the score of the lines it clears.
+ *
+ * usage: TrainingDataGenerator games threads directory [difficulty]
+ *        TrainingDataGenerator bench records threads directory
+ * the second form only measures how fast the exporter writes made-up
+ * records, without playing.
+ *
+ * @author Administrator
+ *
+ */
+public class TrainingDataGenerator {
+
+	//score for clearing 0 to 4 lines at one time, as in GameCore.updateGame
+	private final static float[] LINE_SCORES = {0, 100, 400, 900, 2500};
+	private final static long STEP = 4000000;					//4 ms of game time
+	private final static long MAX_GAME_TIME = 3600L * 1000000000L;
+	private final static int RECORDS_PER_CHUNK = 8192;
+	private final static long BYTES_PER_FILE = 256L << 20;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		if(args.length >= 4 && args[0].equals("bench")) {
+			bench(Long.parseLong(args[1]), Integer.parseInt(args[2]), new File(args[3]));
+			return;
+		}
+		if(args.length < 3) {
+			System.out.println("usage: TrainingDataGenerator games threads directory [difficulty]");
+			System.out.println("       TrainingDataGenerator bench records threads directory");
+			return;
+		}
+		int games = Integer.parseInt(args[0]);
+		int threads = Integer.parseInt(args[1]);
+		String difficulty = args.length > 3 ? args[3] : "Medium";
+		generate(games, threads, new File(args[2]), difficulty);
+	}
+
+	/**
+	 * play the games on a pool of threads and record every place
+	 */
+	public static void generate(int games, int threads, File directory, final String difficulty)
+			throws IOException, InterruptedException {
+		final TrainingDataExporter exporter = new TrainingDataExporter(directory, "games",
+				RECORDS_PER_CHUNK, BYTES_PER_FILE);
+		final AtomicInteger finished = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for(int g = 0; g < games; g++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					playGame(exporter, difficulty);
+					finished.incrementAndGet();
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		exporter.close();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long records = exporter.getRecordCount();
+		System.out.printf("%d games, %d records in %.2f s (%.0f records/s)%n",
+				finished.get(), records, seconds, records / seconds);
+	}
+
+	private static void playGame(final TrainingDataExporter exporter, String difficulty) {
+		final TetrisGame game = new TetrisGame(difficulty, false);
+		game.setBot(new TetrisAI() {
+			protected void placing(TetrisGame game, TetrisBlock block, int orientation, int col) {
+				TetrisGame.GameCore core = game.getGameCore();
+				exporter.record(core.getLines(), block, core.getNext(), orientation, col,
+						LINE_SCORES[getClearedLines()]);
+			}
+		});
+		game.start();
+		game.getGameCore().setNext();
+		for(long now = STEP; now < MAX_GAME_TIME && game.getGameStatus().equals("RUNNING"); now += STEP)
+			game.step(now);
+		game.stop();
+	}
+
+	/**
+	 * write made-up records as fast as possible from several threads
+	 */
+	public static void bench(long records, int threads, File directory)
+			throws IOException, InterruptedException {
+		final TrainingDataExporter exporter = new TrainingDataExporter(directory, "bench",
+				RECORDS_PER_CHUNK, BYTES_PER_FILE);
+		final long recordsPerThread = records / threads;
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			final int seed = t * 7919 + 1;
+			workers[t] = new Thread() {
+				public void run() {
+					int[] lines = new int[20];
+					int x = seed;
+					for(long n = 0; n < recordsPerThread; n++) {
+						//xorshift, to make the records differ
+						x ^= x << 13;
+						x ^= x >>> 17;
+						x ^= x << 5;
+						lines[(int) (n % 20)] = x & TetrisAI.FULL_LINE;
+						exporter.record(lines, (x >>> 10) % 7, (x >>> 13) & 3, -2, (x >>> 15) & 7,
+								(x >>> 18) & 3, (x >>> 20) & 3, (x >>> 22) & 7, LINE_SCORES[(int) (n % 5)]);
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for(Thread w: workers)
+			w.start();
+		for(Thread w: workers)
+			w.join();
+		exporter.close();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d records by %d threads in %.2f s (%.0f records/s, %.0f MB/s)%n",
+				exporter.getRecordCount(), threads, seconds, exporter.getRecordCount() / seconds,
+				exporter.getRecordCount() * TrainingDataExporter.RECORD_BYTES / seconds / 1e6);
+	}
+}
@@ -0,0 +1,353 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            VersusGame.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.util.List;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+/**
+ * several games side by side in one window. up to 4 players share the
+ * keyboard, and any number of bots can join. when a player clears lines,
+ * garbage lines are sent to the next opponent that is still alive. the last
+ * one alive wins.
+ *
+ * all the games are stepped by one GameScheduler thread and painted by one
+ * panel in one pass, so there is no thread for each game.
+ *
+ * @author Administrator
+ *
+ */
+public class VersusGame implements KeyListener, GameListener {
+
+	//the keys of each player, in the order of left, right, down, spin
+	//counter-clockwise, spin clockwise, hold and drop
+	private final static int[][] PLAYER_KEYS =
+		{
+			{KeyEvent.VK_A, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_W,
+				KeyEvent.VK_E, KeyEvent.VK_Q, KeyEvent.VK_SPACE},
+			{KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_UP,
+				KeyEvent.VK_SLASH, KeyEvent.VK_PERIOD, KeyEvent.VK_CONTROL},
+			{KeyEvent.VK_J, KeyEvent.VK_L, KeyEvent.VK_K, KeyEvent.VK_I,
+				KeyEvent.VK_O, KeyEvent.VK_U, KeyEvent.VK_H},
+			{KeyEvent.VK_NUMPAD4, KeyEvent.VK_NUMPAD6, KeyEvent.VK_NUMPAD5, KeyEvent.VK_NUMPAD8,
+				KeyEvent.VK_NUMPAD9, KeyEvent.VK_NUMPAD7, KeyEvent.VK_NUMPAD0}
+		};
+	//the keys that a single game understands, in the same order
+	private final static int[] GAME_KEYS =
+		{KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_UP,
+			KeyEvent.VK_X, KeyEvent.VK_C, KeyEvent.VK_SPACE};
+	//garbage lines sent for clearing 0 to 4 lines at one time
+	private final static int[] GARBAGE_LINES = {0, 0, 1, 2, 4};
+	private final static int TICK_RATE = 240;
+	private final static int RENDER_RATE = 60;
+	private final static int TILE_WIDTH = 160;
+	private final static int TILE_HEIGHT = 340;
+
+	private final JFrame WINDOW = new JFrame();
+	private final VersusPanel PANEL = new VersusPanel();
+	private final TetrisGame[] games;
+	private final String[] names;
+	private final int numPlayers;
+	private final int[] nextTarget;		//the opponent that receives the next garbage
+	private final GameScheduler SCHEDULER;
+	private final String difficulty;
+	private volatile String matchStatus;
+	private volatile int winner;
+	private final int columns;
+	private final double scale;
+
+	/**
+	 * @param numPlayers the number of players on the keyboard, 0 to 4
+	 * @param numBots the number of games played by bots
+	 * @param difficulty Difficulty of the games
+	 */
+	public VersusGame(int numPlayers, int numBots, String difficulty) {
+		if(numPlayers < 0 || numPlayers > PLAYER_KEYS.length || numPlayers + numBots < 1)
+			throw new IllegalArgumentException("need 0 to 4 players and at least one game");
+		this.numPlayers = numPlayers;
+		this.difficulty = difficulty;
+		int n = numPlayers + numBots;
+		games = new TetrisGame[n];
+		names = new String[n];
+		nextTarget = new int[n];
+		for(int i = 0; i < n; i++) {
+			games[i] = new TetrisGame(difficulty, false);
+			games[i].getGameCore().setPublishesFrames(true);
+			games[i].getEventBus().addListener(this);
+			if(i < numPlayers) {
+				names[i] = "P" + (i + 1);
+			} else {
+				names[i] = "AI " + (i - numPlayers + 1);
+				games[i].setBot(new TetrisAI());
+			}
+			nextTarget[i] = (i + 1) % n;
+		}
+		matchStatus = "NEW";
+		winner = -1;
+
+		//tiles are scaled down so that all games fit on the screen
+		columns = Math.min(n, (int) Math.ceil(Math.sqrt(n * 2.0)));
+		int rows = (n + columns - 1) / columns;
+		scale = Math.min(1, Math.min(1200.0 / (columns*TILE_WIDTH), 860.0 / (rows*TILE_HEIGHT)));
+		PANEL.setPreferredSize(new Dimension((int) (columns*TILE_WIDTH*scale), (int) (rows*TILE_HEIGHT*scale)));
+
+		SCHEDULER = new GameScheduler(TICK_RATE, RENDER_RATE, new Runnable() {
+			public void run() {
+				PANEL.repaint();
+			}
+		});
+		for(TetrisGame game: games)
+			SCHEDULER.addGame(game);
+
+		WINDOW.add(PANEL);
+		WINDOW.setResizable(false);
+		WINDOW.pack();
+		WINDOW.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		WINDOW.setFocusable(true);
+		WINDOW.setFocusTraversalKeysEnabled(false);
+		WINDOW.setLocationRelativeTo(null);
+		WINDOW.setTitle("Tetris Versus");
+		WINDOW.setVisible(true);
+		WINDOW.addKeyListener(this);
+		SCHEDULER.start();
+	}
+
+	public TetrisGame[] getGames() {
+		return games;
+	}
+
+	public String getMatchStatus() {
+		return matchStatus;
+	}
+
+	/**
+	 * start every game at the same time
+	 */
+	public void start() {
+		for(TetrisGame game: games) {
+			game.start();
+			game.getGameCore().setNext();
+		}
+		matchStatus = "RUNNING";
+	}
+
+	/**
+	 * renew every game so that a new match can be started
+	 */
+	public void renew() {
+		for(int i = 0; i < games.length; i++) {
+			games[i].renew();
+			games[i].setDifficulty(difficulty);
+			nextTarget[i] = (i + 1) % games.length;
+		}
+		winner = -1;
+		matchStatus = "NEW";
+	}
+
+	public void exit() {
+		SCHEDULER.stop();
+		for(TetrisGame game: games)
+			game.stop();
+		WINDOW.removeKeyListener(this);
+		WINDOW.dispose();
+	}
+
+	/**
+	 * called on the scheduler thread while a game is being stepped, so it
+	 * is safe to send garbage to the other games here.
+	 */
+	public void gameEventsFired(List<GameEvent> events) {
+		for(GameEvent e: events) {
+			int from = indexOf(e.getGame());
+			switch(e.getType()) {
+			case LINES_CLEARED:
+				sendGarbage(from, GARBAGE_LINES[Math.min(e.getValue(), 4)]);
+				break;
+			case BOOM_FIRED:
+				sendGarbage(from, 4);
+				break;
+			case GAME_OVER:
+				checkWinner();
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private int indexOf(TetrisGame game) {
+		for(int i = 0; i < games.length; i++)
+			if(games[i] == game)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * send the lines to the next opponent that is still alive. the opponents
+	 * take turns, so that all of them get the same share of garbage.
+	 */
+	private void sendGarbage(int from, int lines) {
+		if(lines <= 0 || games.length < 2)
+			return;
+		int target = nextTarget[from];
+		for(int k = 0; k < games.length; k++) {
+			if(target != from && games[target].getGameStatus().equals("RUNNING")) {
+				games[target].sendGarbage(lines);
+				nextTarget[from] = (target + 1) % games.length;
+				return;
+			}
+			target = (target + 1) % games.length;
+		}
+	}
+
+	/**
+	 * the match ends when at most one game is alive. the one alive wins.
+	 */
+	private void checkWinner() {
+		int alive = 0;
+		int last = -1;
+		for(int i = 0; i < games.length; i++) {
+			String status = games[i].getGameStatus();
+			if(status.equals("RUNNING") || status.equals("PAUSED")) {
+				alive++;
+				last = i;
+			}
+		}
+		if(alive > 1 || (alive == 1 && games.length == 1))
+			return;
+		winner = last;
+		matchStatus = "STOPPED";
+		if(last != -1)
+			games[last].stop();
+		if(games.length > 1)
+			System.out.println(winner == -1 ? "Draw" : names[winner] + " wins");
+	}
+
+	public void keyPressed(KeyEvent e) {
+		int code = e.getKeyCode();
+		switch(code) {
+		case KeyEvent.VK_ESCAPE:
+			exit();
+			return;
+		case KeyEvent.VK_ENTER:
+			//the games are only changed between two ticks of the scheduler
+			if(matchStatus.equals("NEW")) {
+				SCHEDULER.stop();
+				start();
+				SCHEDULER.start();
+			} else if(matchStatus.equals("STOPPED")) {
+				SCHEDULER.stop();
+				renew();
+				SCHEDULER.start();
+			}
+			return;
+		case KeyEvent.VK_P:
+			togglePause();
+			return;
+		default:
+			break;
+		}
+		forwardKey(code, true);
+	}
+
+	public void keyReleased(KeyEvent e) {
+		forwardKey(e.getKeyCode(), false);
+	}
+
+	public void keyTyped(KeyEvent e) {}
+
+	/**
+	 * find the player that owns the key, and press or release the matching
+	 * key of the game of that player.
+	 */
+	private void forwardKey(int code, boolean isPressed) {
+		for(int p = 0; p < numPlayers; p++) {
+			for(int k = 0; k < GAME_KEYS.length; k++) {
+				if(PLAYER_KEYS[p][k] != code)
+					continue;
+				TetrisGame.GameCore core = games[p].getGameCore();
+				if(!isPressed)
+					core.releaseKey(GAME_KEYS[k]);
+				else if(games[p].getGameStatus().equals("RUNNING"))
+					core.pressKey(GAME_KEYS[k]);
+				return;
+			}
+		}
+	}
+
+	private void togglePause() {
+		//the games pause in their next step, those that are over stay over
+		if(matchStatus.equals("RUNNING")) {
+			for(TetrisGame game: games)
+				game.pause();
+			matchStatus = "PAUSED";
+		} else if(matchStatus.equals("PAUSED")) {
+			for(TetrisGame game: games)
+				game.unpause();
+			matchStatus = "RUNNING";
+		}
+	}
+
+	/**
+	 * paints every game in one pass. each game is drawn by its own GameCore
+	 * into a tile, with the name, score and level below it, all from the
+	 * last frame the game has published.
+	 *
+	 * @author Administrator
+	 *
+	 */
+	class VersusPanel extends JPanel {
+
+		private static final long serialVersionUID = -2719471870153472130L;
+
+		public void paintComponent(Graphics g) {
+			g.setColor(Color.black);
+			g.fillRect(0, 0, getWidth(), getHeight());
+			for(int i = 0; i < games.length; i++) {
+				Graphics2D tile = (Graphics2D) g.create();
+				tile.scale(scale, scale);
+				tile.translate((i % columns) * TILE_WIDTH + 5, (i / columns) * TILE_HEIGHT + 5);
+				paintGame(i, tile);
+				tile.dispose();
+			}
+		}
+
+		private void paintGame(int i, Graphics2D g) {
+			TetrisGame.GameCore core = games[i].getGameCore();
+			GameFrame frame = core.getFrame();
+			core.paintComponent(g);
+			g.setColor(i < numPlayers ? Color.white : Color.lightGray);
+			g.drawString(names[i], 0, 315);
+			g.setColor(Color.green);
+			g.drawString(Integer.toString(frame.getScore()), 40, 315);
+			g.setColor(Color.yellow);
+			g.drawString("Lv " + frame.getLevel(), 105, 315);
+			String status = frame.getStatus();
+			String banner = null;
+			if(matchStatus.equals("NEW"))
+				banner = i == 0 ? "Press Enter" : null;
+			else if(i == winner)
+				banner = "WINNER";
+			else if(status.equals("STOPPED"))
+				banner = "K.O.";
+			else if(status.equals("PAUSED"))
+				banner = "Paused";
+			if(banner != null) {
+				g.setColor(Color.red);
+				g.drawString(banner, 50, 150);
+			}
+		}
+	}
+}
@@ -0,0 +1,467 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            WallView.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.JFrame;
+
+/**
+ * a wall of many games in one window, for lobby displays and for watching
+ * simulations: 16 to 100 games, played by bots or by people, each in a tile
+ * of a grid. the tiles are as large as the window allows, and follow the
+ * window when it is resized.
+ *
+ * like an ActiveRenderer, the wall is painted by its own thread at a fixed
+ * frame rate, from the frames the games publish, so it never waits for the
+ * games. the solidified blocks of every tile are kept in one image of the
+ * whole wall, and only the lines of a tile that have changed since the last
+ * frame are drawn into it again (a line of a frame is one packed long, see
+ * GameFrame, so it is compared at once). each frame the image is copied to
+ * the screen at once, and the dropping blocks, scores and levels of all the
+ * tiles are drawn over it in one pass. what a frame costs to render is
+ * shown in the corner, and printed every few seconds.
+ *
+ * usage: WallView [games] [frames per second]
+ *        WallView bench [games] [seconds], to compare the cost of a frame
+ *        of the wall with painting a GameCore for each game, without a
+ *        window
+ *
+ * @author Administrator
+ *
+ */
+public class WallView extends Canvas {
+
+	private static final long serialVersionUID = -6120954766503014263L;
+	private final static long STATS_INTERVAL = 5000000000L;		//5 seconds
+	private final static int TICK_RATE = 240;
+	private final static int GAP = 4;				//between two tiles
+	private final static int TEXT_HEIGHT = 12;		//below the board of a tile
+	private final static int STATUS_HEIGHT = 14;	//below the tiles, for the cost of the frames
+	private final static Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 10);
+	private final List<TetrisGame> games;
+	private final long frameInterval;
+	private volatile boolean isRunning;
+	private Thread renderThread;
+
+	//the layout and the image of the wall, only used by the render thread
+	private int width, height;
+	private int columns;
+	private int cell;						//the size of a brick in pixels
+	private int tileWidth, tileHeight;
+	private BufferedImage wall;				//the solidified blocks of every tile
+	private long[][] paintedRows;			//the lines last drawn into the wall, by tile and row
+	private final List<GameFrame> frames = new ArrayList<GameFrame>();
+	private int dirtyRows;					//lines drawn into the wall by the last frame
+	private long lastCost;					//time taken by the last frame, in nanoseconds
+
+	//render costs since the last report
+	private long statsStart, numFrames, sumCost, maxCost, sumDirtyRows;
+
+	/**
+	 * @param games the games to show. they must publish frames (see
+	 * 			GameCore.setPublishesFrames), and be stepped by someone else.
+	 * @param frameRate frames per second
+	 */
+	public WallView(List<TetrisGame> games, int frameRate) {
+		this.games = games;
+		frameInterval = 1000000000L / frameRate;
+		setIgnoreRepaint(true);
+		setFocusable(false);
+		setBackground(Color.black);
+	}
+
+	/**
+	 * @return the size of the wall with tiles that fit in the space given
+	 */
+	public static Dimension getFittingSize(int numGames, int maxWidth, int maxHeight) {
+		int[] layout = layout(numGames, maxWidth, maxHeight);
+		int rows = (numGames + layout[0] - 1) / layout[0];
+		return new Dimension(layout[0] * (10*layout[1] + GAP) + GAP,
+				rows * (20*layout[1] + TEXT_HEIGHT + GAP) + GAP + STATUS_HEIGHT);
+	}
+
+	/**
+	 * find the number of columns of tiles that gives the largest bricks
+	 *
+	 * @return the number of columns and the size of a brick
+	 */
+	private static int[] layout(int numGames, int width, int height) {
+		int bestColumns = 1;
+		int bestCell = 0;
+		height -= STATUS_HEIGHT;
+		for(int c = 1; c <= Math.max(1, numGames); c++) {
+			int rows = (numGames + c - 1) / c;
+			//a board is 10 bricks wide and 20 high
+			int cell = Math.min(((width - GAP) / c - GAP) / 10,
+					((height - GAP) / rows - GAP - TEXT_HEIGHT) / 20);
+			if(cell > bestCell) {
+				bestCell = cell;
+				bestColumns = c;
+			}
+		}
+		return new int[]{bestColumns, Math.max(2, bestCell)};
+	}
+
+	/**
+	 * create the buffers and start the render thread. the canvas must be
+	 * showing in a window.
+	 */
+	public synchronized void start() {
+		if(isRunning)
+			return;
+		createBufferStrategy(2);
+		isRunning = true;
+		renderThread = new Thread("WallView") {
+			public void run() {
+				renderLoop();
+			}
+		};
+		renderThread.setDaemon(true);
+		renderThread.start();
+	}
+
+	public synchronized void stop() {
+		isRunning = false;
+		if(renderThread != null && renderThread != Thread.currentThread()) {
+			try {renderThread.join();} catch (InterruptedException e) {}
+		}
+		renderThread = null;
+	}
+
+	private void renderLoop() {
+		BufferStrategy strategy = getBufferStrategy();
+		long nextFrame = System.nanoTime();
+		statsStart = nextFrame;
+		while(isRunning) {
+			long start = System.nanoTime();
+			do {
+				do {
+					Graphics g = strategy.getDrawGraphics();
+					try {
+						render(g, getWidth(), getHeight());
+					} finally {
+						g.dispose();
+					}
+				} while(strategy.contentsRestored());
+				strategy.show();
+			} while(strategy.contentsLost());
+			Toolkit.getDefaultToolkit().sync();
+
+			long now = System.nanoTime();
+			recordFrame(now - start);
+			if(now - statsStart >= STATS_INTERVAL) {
+				System.out.println(getFrameStats());
+				resetStats(now);
+			}
+			nextFrame += frameInterval;
+			//too far behind, start again from now instead of rushing frames
+			if(now - nextFrame > frameInterval)
+				nextFrame = now;
+			long wait = nextFrame - now;
+			if(wait > 0)
+				LockSupport.parkNanos(wait);
+		}
+	}
+
+	/**
+	 * render a frame of the wall in an area of the given size at the origin
+	 * of the graphics. only called by one thread at a time.
+	 */
+	public void render(Graphics g, int width, int height) {
+		long start = System.nanoTime();
+		if(wall == null || width != this.width || height != this.height)
+			layOut(width, height);
+		frames.clear();
+		for(TetrisGame game: games)
+			frames.add(game.getGameCore().getFrame());
+		updateWall();
+		g.drawImage(wall, 0, 0, null);
+		paintOverlays(g);
+		lastCost = System.nanoTime() - start;
+	}
+
+	/**
+	 * lay the tiles out again for the size, and draw every line again
+	 */
+	private void layOut(int width, int height) {
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+		int[] layout = layout(games.size(), this.width, this.height);
+		columns = layout[0];
+		cell = layout[1];
+		tileWidth = 10*cell + GAP;
+		tileHeight = 20*cell + TEXT_HEIGHT + GAP;
+		wall = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+		Graphics g = wall.getGraphics();
+		g.setColor(Color.black);
+		g.fillRect(0, 0, this.width, this.height);
+		g.setColor(Color.darkGray);
+		for(int k = 0; k < games.size(); k++)
+			g.fillRect(getTileX(k), getTileY(k), 10*cell, 20*cell);
+		g.dispose();
+		paintedRows = new long[games.size()][20];
+		for(long[] painted: paintedRows)
+			Arrays.fill(painted, -1L);		//no line is packed as all ones
+	}
+
+	private int getTileX(int k) {
+		return GAP + (k % columns) * tileWidth;
+	}
+
+	private int getTileY(int k) {
+		return GAP + (k / columns) * tileHeight;
+	}
+
+	/**
+	 * draw the lines that have changed since the last frame into the wall
+	 */
+	private void updateWall() {
+		Graphics g = null;
+		dirtyRows = 0;
+		int brick = Math.max(1, cell - 1);
+		for(int k = 0; k < frames.size(); k++) {
+			GameFrame frame = frames.get(k);
+			if(frame == null)
+				continue;
+			long[] painted = paintedRows[k];
+			int x = getTileX(k);
+			int y = getTileY(k);
+			for(int i = 0; i < 20; i++) {
+				long row = frame.getRow(i);
+				if(row == painted[i])
+					continue;
+				if(g == null)
+					g = wall.getGraphics();
+				g.setColor(Color.darkGray);
+				g.fillRect(x, y + i*cell, 10*cell, cell);
+				for(int j = 0; j < 10; j++) {
+					int code = PackedBoard.get(row, j);
+					if(code != PackedBoard.EMPTY) {
+						g.setColor(PackedBoard.toColor(code));
+						g.fillRect(x + j*cell, y + i*cell, brick, brick);
+					}
+				}
+				painted[i] = row;
+				dirtyRows++;
+			}
+		}
+		if(g != null)
+			g.dispose();
+	}
+
+	/**
+	 * draw the dropping blocks, the scores, the levels and the banners of
+	 * every tile, and the cost of the last frame
+	 */
+	private void paintOverlays(Graphics g) {
+		int brick = Math.max(1, cell - 1);
+		for(int k = 0; k < frames.size(); k++) {
+			GameFrame frame = frames.get(k);
+			if(frame == null)
+				continue;
+			int x = getTileX(k);
+			int y = getTileY(k);
+			g.setColor(frame.getBlockColor());
+			if(cell >= 6)
+				for(int n = 0; n < frame.getNumGhostBricks(); n++) {
+					int[] b = frame.getGhostBrick(n);
+					g.drawRect(x + b[1]*cell, y + b[0]*cell, brick - 1, brick - 1);
+				}
+			for(int n = 0; n < frame.getNumBricks(); n++) {
+				int[] b = frame.getBrickOfBlock(n);
+				g.fillRect(x + b[1]*cell, y + b[0]*cell, brick, brick);
+			}
+		}
+		g.setFont(FONT);
+		for(int k = 0; k < frames.size(); k++) {
+			GameFrame frame = frames.get(k);
+			if(frame == null)
+				continue;
+			int x = getTileX(k);
+			int y = getTileY(k) + 20*cell + TEXT_HEIGHT - 2;
+			g.setColor(Color.green);
+			g.drawString(Integer.toString(frame.getScore()), x, y);
+			if(10*cell >= 60) {
+				g.setColor(Color.yellow);
+				g.drawString("Lv " + frame.getLevel(), x + 10*cell - 28, y);
+			}
+			if(!frame.getStatus().equals("RUNNING")) {
+				g.setColor(Color.red);
+				g.drawString(frame.getStatus(), x + 2, getTileY(k) + 10*cell);
+			}
+		}
+		String cost = String.format("%d games, render %.2f ms, %d rows", frames.size(), lastCost / 1e6, dirtyRows);
+		g.setColor(Color.black);
+		g.fillRect(0, height - STATUS_HEIGHT, width, STATUS_HEIGHT);
+		g.setColor(Color.white);
+		g.drawString(cost, GAP, height - 3);
+	}
+
+	/**
+	 * @return the time taken by the last frame, in nanoseconds
+	 */
+	public long getLastCost() {
+		return lastCost;
+	}
+
+	/**
+	 * @return the number of lines drawn into the wall by the last frame
+	 */
+	public int getDirtyRows() {
+		return dirtyRows;
+	}
+
+	private synchronized void recordFrame(long nanos) {
+		numFrames++;
+		sumCost += nanos;
+		if(nanos > maxCost)
+			maxCost = nanos;
+		sumDirtyRows += dirtyRows;
+	}
+
+	private synchronized void resetStats(long now) {
+		statsStart = now;
+		numFrames = sumCost = maxCost = sumDirtyRows = 0;
+	}
+
+	/**
+	 * @return the number of frames and the mean and max time taken by a
+	 * 			frame since the last report, with the lines drawn per frame
+	 */
+	public synchronized String getFrameStats() {
+		if(numFrames == 0)
+			return "no frames";
+		return String.format("wall: %d games, %d frames, render mean %.2f ms, max %.2f ms, %.1f rows per frame",
+				games.size(), numFrames, sumCost / 1e6 / numFrames, maxCost / 1e6,
+				(double) sumDirtyRows / numFrames);
+	}
+
+	/**
+	 * show a wall of bot games, which are started again when they end
+	 */
+	public static void main(String[] args) {
+		if(args.length > 0 && args[0].equals("bench")) {
+			System.setProperty("java.awt.headless", "true");
+			benchmark(args.length > 1 ? Integer.parseInt(args[1]) : 100,
+					args.length > 2 ? Double.parseDouble(args[2]) : 10);
+			return;
+		}
+		int numGames = args.length > 0 ? Integer.parseInt(args[0]) : 36;
+		int frameRate = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		final List<TetrisGame> games = new ArrayList<TetrisGame>();
+		//the scheduler calls back on its own thread, where the games may be
+		//started again; the wall is painted by its own thread. setSeed
+		//renews a game, which brings back the speed of its difficulty
+		GameScheduler scheduler = new GameScheduler(TICK_RATE, 10, new Runnable() {
+			private long nextSeed;
+			public void run() {
+				for(TetrisGame game: games)
+					if(!game.getGameStatus().equals("RUNNING")) {
+						game.setSeed(nextSeed++);
+						game.start();
+						game.getGameCore().setNext();
+					}
+			}
+		});
+		for(int k = 0; k < numGames; k++) {
+			TetrisGame game = new TetrisGame("Medium", false);
+			game.getGameCore().setPublishesFrames(true);
+			game.setBot(new TetrisAI());
+			games.add(game);
+		}
+		for(TetrisGame game: games)
+			scheduler.addGame(game);
+
+		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+		WallView view = new WallView(games, frameRate);
+		view.setPreferredSize(getFittingSize(numGames, screen.width * 9 / 10, screen.height * 85 / 100));
+		JFrame window = new JFrame("Tetris Wall - " + numGames + " games");
+		window.add(view);
+		window.pack();
+		window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		window.setLocationRelativeTo(null);
+		window.setVisible(true);
+		view.start();
+		scheduler.start();
+	}
+
+	/**
+	 * a wall without a window, to compare costs: render bot games into an
+	 * image for a few seconds, with the wall and with a GameCore for each
+	 * game as the versus view paints them.
+	 */
+	private static void benchmark(int numGames, double seconds) {
+		List<TetrisGame> games = new ArrayList<TetrisGame>();
+		GameScheduler scheduler = new GameScheduler(TICK_RATE, 60, null);
+		for(int k = 0; k < numGames; k++) {
+			TetrisGame game = new TetrisGame("Medium", false);
+			game.getGameCore().setPublishesFrames(true);
+			game.setBot(new TetrisAI());
+			game.setSeed(k);
+			game.start();
+			game.getGameCore().setNext();
+			games.add(game);
+			scheduler.addGame(game);
+		}
+		Dimension size = getFittingSize(numGames, 1600, 1000);
+		BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+		WallView view = new WallView(games, 60);
+		int[] layout = layout(numGames, size.width, size.height);
+		double scale = layout[1] / 15.0;
+		for(int pass = 0; pass < 2; pass++) {
+			long wallNanos = 0, coreNanos = 0, rows = 0;
+			int frames = 0;
+			long end = System.nanoTime() + (long) (seconds * 1e9);
+			while(System.nanoTime() < end) {
+				//a frame at 60 fps is 4 ticks at 240
+				for(int t = 0; t < 4; t++)
+					scheduler.tick();
+				for(TetrisGame game: games)
+					if(!game.getGameStatus().equals("RUNNING")) {
+						game.renew();
+						game.start();
+						game.getGameCore().setNext();
+					}
+				Graphics g = image.getGraphics();
+				long start = System.nanoTime();
+				view.render(g, size.width, size.height);
+				wallNanos += System.nanoTime() - start;
+				rows += view.getDirtyRows();
+				g.dispose();
+
+				Graphics2D g2 = (Graphics2D) image.getGraphics();
+				start = System.nanoTime();
+				for(int k = 0; k < numGames; k++) {
+					Graphics2D tile = (Graphics2D) g2.create();
+					tile.translate(view.getTileX(k), view.getTileY(k));
+					tile.scale(scale, scale);
+					games.get(k).getGameCore().paintComponent(tile);
+					tile.dispose();
+				}
+				coreNanos += System.nanoTime() - start;
+				g2.dispose();
+				frames++;
+			}
+			if(pass == 1)
+				System.out.printf("%d games, %d frames: wall %.2f ms per frame (%.1f rows), a GameCore per game %.2f ms%n",
+						numGames, frames, wallNanos / 1e6 / frames, (double) rows / frames, coreNanos / 1e6 / frames);
+		}
+	}
+}
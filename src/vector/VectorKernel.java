@@ -0,0 +1,138 @@
+///////////////////////////////////////////////////////////////////////////////
+// Title:            Tetris
+// Files:            VectorKernel.java
+//
+// Author:           Guohong Yang
+// Email:            gyang48@wisc.edu
+//////////////////////////// 80 columns wide //////////////////////////////////
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * steps the boards of a BatchEngine with the incubating vector API, one
+ * vector of boards at a time. each lane of a vector is a board, and since
+ * row r of neighbouring boards is contiguous, every load and store is a
+ * plain load or store, except for the rows under the blocks.
+ *
+ * the rows of the board under the block are at a different row for each
+ * board, so they are gathered, and the rows of a locked block are
+ * scattered. the full rows are found and removed with plain loads and
+ * stores, row by row.
+ *
+ * this file needs the vector module, and is kept apart from the rest of the
+ * game so that the game compiles without it:
+ *     javac --add-modules jdk.incubator.vector -cp classes -d classes vector/VectorKernel.java
+ *     java --add-modules jdk.incubator.vector -cp classes BatchEngine
+ *
+ * @author Administrator
+ *
+ */
+public class VectorKernel implements BatchEngine.Kernel {
+
+	private final static VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private final static int[] LANES = new int[SPECIES.length()];
+	private final int[] index = new int[SPECIES.length()];		//indexes of a gather or a scatter
+
+	static {
+		for(int k = 0; k < LANES.length; k++)
+			LANES[k] = k;
+	}
+
+	public void step(BatchEngine e) {
+		int cap = e.capacity;
+		int[] rows = e.rows;
+		for(int b = 0; b < cap; b += SPECIES.length()) {
+			IntVector status = IntVector.fromArray(SPECIES, e.status, b);
+			VectorMask<Integer> falling = status.compare(VectorOperators.EQ, BatchEngine.FALLING);
+			VectorMask<Integer> clearing = status.compare(VectorOperators.EQ, BatchEngine.CLEARING);
+			if(clearing.anyTrue())
+				clear(e, b, clearing);
+			if(!falling.anyTrue())
+				continue;
+
+			IntVector ref = IntVector.fromArray(SPECIES, e.refRows, b);
+			IntVector boards = IntVector.fromArray(SPECIES, LANES, 0).add(b);
+			IntVector next = ref.add(1);
+			VectorMask<Integer> hits = SPECIES.maskAll(false);
+			for(int d = 0; d < 4; d++) {
+				IntVector piece = IntVector.fromArray(SPECIES, e.pieceRows, d * cap + b);
+				IntVector r = next.add(d);
+				VectorMask<Integer> hasBrick = piece.compare(VectorOperators.NE, 0);
+				//a brick below the bottom
+				hits = hits.or(r.compare(VectorOperators.GE, 20).and(hasBrick));
+				//a brick over a brick of the board, bricks above the board never hit
+				VectorMask<Integer> isVisible = r.compare(VectorOperators.GE, 0)
+						.and(r.compare(VectorOperators.LT, 20)).and(hasBrick).and(falling);
+				if(!isVisible.anyTrue())
+					continue;
+				IntVector row = gatherRows(rows, r, boards, cap);
+				hits = hits.or(row.and(piece).compare(VectorOperators.NE, 0).and(isVisible));
+			}
+
+			ref.add(1, falling.andNot(hits)).intoArray(e.refRows, b);
+			VectorMask<Integer> locking = falling.and(hits);
+			if(!locking.anyTrue())
+				continue;
+			for(int d = 0; d < 4; d++) {
+				IntVector piece = IntVector.fromArray(SPECIES, e.pieceRows, d * cap + b);
+				IntVector r = ref.add(d);
+				VectorMask<Integer> isVisible = r.compare(VectorOperators.GE, 0)
+						.and(r.compare(VectorOperators.LT, 20)).and(piece.compare(VectorOperators.NE, 0))
+						.and(locking);
+				if(!isVisible.anyTrue())
+					continue;
+				//every lane is a different board, so the lanes never write the same
+				//int, and the other lanes write back what they read
+				IntVector row = gatherRows(rows, r, boards, cap);
+				row.blend(row.or(piece), isVisible).intoArray(rows, 0, index, 0);
+			}
+			long lanes = locking.toLong();
+			while(lanes != 0) {
+				e.locked(b + Long.numberOfTrailingZeros(lanes));
+				lanes &= lanes - 1;
+			}
+		}
+	}
+
+	/**
+	 * gather row r of each board, and keep the indexes in index for a
+	 * scatter. the row is clamped to the board, the lanes where it is out of
+	 * the board have to be ignored by the caller. the gathers are not
+	 * masked, since masked gathers crash the compiler of JDK 17.
+	 */
+	private IntVector gatherRows(int[] rows, IntVector r, IntVector boards, int cap) {
+		r.max(0).min(19).mul(cap).add(boards).intoArray(index, 0);
+		return IntVector.fromArray(SPECIES, rows, 0, index, 0);
+	}
+
+	/**
+	 * remove the full rows of the clearing boards, from the top down, moving
+	 * the rows above each one down a row
+	 */
+	private static void clear(BatchEngine e, int b, VectorMask<Integer> clearing) {
+		int cap = e.capacity;
+		int[] rows = e.rows;
+		IntVector count = IntVector.zero(SPECIES);
+		for(int r = 0; r < 20; r++) {
+			IntVector row = IntVector.fromArray(SPECIES, rows, r * cap + b);
+			VectorMask<Integer> full = row.compare(VectorOperators.EQ, BatchEngine.FULL_LINE).and(clearing);
+			if(!full.anyTrue())
+				continue;
+			count = count.add(1, full);
+			for(int i = r; i > 0; i--) {
+				IntVector above = IntVector.fromArray(SPECIES, rows, (i - 1) * cap + b);
+				IntVector.fromArray(SPECIES, rows, i * cap + b).blend(above, full).intoArray(rows, i * cap + b);
+			}
+			IntVector.fromArray(SPECIES, rows, b).blend(0, full).intoArray(rows, b);
+		}
+		long lanes = clearing.toLong();
+		while(lanes != 0) {
+			int lane = Long.numberOfTrailingZeros(lanes);
+			e.cleared(b + lane, count.lane(lane));
+			lanes &= lanes - 1;
+		}
+	}
+}